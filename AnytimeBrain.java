@@ -0,0 +1,17 @@
+/**
+ A Brain that can be told when to stop thinking.
+ It searches progressively deeper and keeps the best move of the deepest
+ search it finished, so whenever the deadline comes it has an answer --
+ the bestMove() below returns by then (give or take one board rating),
+ rather than whenever the search happens to finish.
+*/
+public interface AnytimeBrain extends Brain {
+	/**
+	 As Brain.bestMove() with a preview, but returns the best move found by
+	 deadlineNanos, a System.nanoTime() value. The first, one piece pass is
+	 always finished, so this only returns null if no play is possible --
+	 the move may be shallower than usual if the deadline is close.
+	*/
+	public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+			int limitHeight, long deadlineNanos, Brain.Move move);
+}
@@ -0,0 +1,228 @@
+/**
+ A Brain that runs a beam search through the preview pieces.
+ It plays the current piece every way MoveGenerator can reach, keeps
+ the beamWidth boards the evaluator's evaluate() rates best, plays the
+ next piece on each of those (straight drops), keeps the best beamWidth
+ of all the results, and so on, one piece per depth. The move is the first play
+ of the line that ends on the best board of the deepest depth reached.
+
+ The kept boards are not Board objects -- each depth's beam lives in
+ preallocated primitive arrays: the row masks of each node's board, its
+ score, its parent in the depth before, and which play made it. One
+ scratch Board is loaded from the masks (Board.loadRows()) to play on,
+ so once the arrays have grown to the beam width and board size a
+ search does not allocate.
+
+ As an AnytimeBrain it stops going deeper when the deadline passes and
+ goes by the last depth it finished -- the search already works one depth
+ at a time, so every finished depth has a best line.
+
+ The beam width may be changed with setBeamWidth() at any time, e.g. from
+ another thread; it takes effect from the next bestMove(). Wider beams
+ play stronger and take longer. Not safe to call bestMove() from several
+ threads at once -- give each thread its own.
+*/
+public class BeamBrain implements AnytimeBrain {
+	public static final int DEFAULT_DEPTH = 4;
+	public static final int DEFAULT_BEAM_WIDTH = 8;
+
+	private final LameBrain evaluator;
+	private final int depth;
+	private volatile int beamWidth;
+
+	private Board board;	// scratch board each node is loaded into to play on
+	private int capacity;	// beam width the node arrays are sized for
+	private int height;	// board height the row arrays are sized for
+	private final MoveGenerator moves = new MoveGenerator();
+	private final PlacementGenerator placements = new PlacementGenerator();
+	private final Piece[] pieces;	// [depth] - piece played at each depth
+
+	// the beam at each depth, [depth][slot] - slots are filled in any order
+	private long[][] rows;	// [depth][slot * height + row] - row masks of the node's board
+	private double[][] scores;	// rating of the node's board
+	private int[][] parents;	// slot of the node it was played from, -1 at depth 0
+	private int[][] plays;	// MoveGenerator lock index at depth 0, packed placement deeper
+	private int[][] order;	// [depth][k] - slots from best score to worst
+	private final int[] sizes;	// [depth] - nodes kept at each depth
+	private boolean timed;	// whether the search must stop at deadline
+	private long deadline;	// System.nanoTime() to stop by
+
+	// searches up to DEFAULT_DEPTH pieces deep
+	public BeamBrain(LameBrain evaluator) {
+		this(evaluator, DEFAULT_DEPTH, DEFAULT_BEAM_WIDTH);
+	}
+
+	/**
+	 Creates a brain that rates boards with the evaluator, searching up to
+	 depth pieces ahead (the current piece counts as one) and keeping the
+	 beamWidth best boards at each.
+	*/
+	public BeamBrain(LameBrain evaluator, int depth, int beamWidth) {
+		if (depth < 1)
+			throw new IllegalArgumentException("Depth must be positive: " + depth);
+		this.evaluator = evaluator;
+		this.depth = depth;
+		setBeamWidth(beamWidth);
+		pieces = new Piece[depth];
+		sizes = new int[depth];
+		rows = new long[depth][0];
+		scores = new double[depth][0];
+		parents = new int[depth][0];
+		plays = new int[depth][0];
+		order = new int[depth][0];
+	}
+
+	// Sets how many boards are kept at each depth, from the next bestMove() on
+	public void setBeamWidth(int beamWidth) {
+		if (beamWidth < 1)
+			throw new IllegalArgumentException("Beam width must be positive: " + beamWidth);
+		this.beamWidth = beamWidth;
+	}
+
+	public int getBeamWidth() {
+		return beamWidth;
+	}
+
+	/**
+	 With no preview this is a one piece search, as LameBrain does it.
+	*/
+	public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+		return bestMove(board, piece, null, 0, limitHeight, move);
+	}
+
+	/**
+	 Given a piece, the pieces that follow it and a board, returns a move
+	 object that represents the best play for that piece, or returns null
+	 if no play is possible. See the Brain interface for details.
+	*/
+	public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+			int limitHeight, Brain.Move move) {
+		timed = false;
+		return think(board, piece, preview, previewCount, limitHeight, move);
+	}
+
+	/**
+	 Searches depth by depth until the full depth is done or the deadline
+	 passes, and returns the move of the deepest depth finished.
+	 See the AnytimeBrain interface for details.
+	*/
+	public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+			int limitHeight, long deadlineNanos, Brain.Move move) {
+		timed = true;
+		deadline = deadlineNanos;
+		return think(board, piece, preview, previewCount, limitHeight, move);
+	}
+
+	private Brain.Move think(Board board, Piece piece, Piece[] preview, int previewCount,
+			int limitHeight, Brain.Move move) {
+		// Allocate a move object if necessary
+		if (move==null) move = new Brain.Move();
+
+		final int beam = beamWidth;	// read once, it may change meanwhile
+		ensureCapacity(beam, board);
+		this.board.copyFrom(board);
+
+		final int plies = Math.min(depth, previewCount + 1);
+		pieces[0] = piece;
+		for (int i = 1; i < plies; i++)
+			pieces[i] = preview[i - 1];
+
+		// depth 0: every reachable play of the current piece
+		sizes[0] = 0;
+		final int count = moves.generate(board, piece, limitHeight);
+		for (int i = 0; i < count; i++)
+			offer(0, beam, -1, i, moves.getLock(i));
+		if (sizes[0] == 0) return(null);	// could not find a play at all!
+
+		// deeper: the next piece dropped on each kept board
+		int last = 0;
+		boolean expired = false;
+		for (int d = 1; d < plies; d++) {
+			sizes[d] = 0;
+			for (int k = 0; k < sizes[d - 1]; k++) {
+				// a depth cut off by the deadline is only part searched, so it is dropped
+				expired = timed && System.nanoTime() - deadline >= 0;
+				if (expired)
+					break;
+				final int slot = order[d - 1][k];
+				this.board.loadRows(rows[d - 1], slot * height);
+				final int n = placements.generate(this.board, pieces[d], limitHeight);
+				for (int i = 0; i < n; i++) {
+					final int placement = placements.getPlacement(i);
+					offer(d, beam, slot, placement, placement);
+				}
+			}
+			if (expired)
+				break;
+			if (sizes[d] == 0)
+				break;	// every line loses here, so go by the depth before
+			last = d;
+		}
+
+		// walk the best line back to the play it starts with
+		int slot = order[last][0];
+		final double bestScore = scores[last][slot];
+		for (int d = last; d > 0; d--)
+			slot = parents[d][slot];
+		final int best = plays[0][slot];
+
+		final int placement = moves.getLock(best);
+		move.x = PlacementGenerator.x(placement);
+		move.y = PlacementGenerator.y(placement);
+		move.piece = piece.getRotation(PlacementGenerator.rotation(placement));
+		move.score = bestScore;
+		final int length = moves.getPathLength(best);
+		if (move.verbs == null || move.verbs.length < length) move.verbs = new int[length];
+		move.verbCount = moves.getPath(best, move.verbs);
+		return(move);
+	}
+
+	// Plays pieces[d] at the packed placement on the scratch board and, if it
+	// fits and rates among the beam best so far at depth d, keeps the result
+	// as a node with the given parent slot and play. Ties keep the earlier node.
+	private void offer(int d, int beam, int parent, int play, int placement) {
+		final Piece current = pieces[d].getRotation(PlacementGenerator.rotation(placement));
+		int result = board.place(current, PlacementGenerator.x(placement), PlacementGenerator.y(placement));
+		if (result <= Board.PLACE_ROW_FILLED) {
+			if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+			final double score = evaluator.evaluate(board);
+			final int[] sorted = order[d];
+			int size = sizes[d];
+			if (size < beam || score < scores[d][sorted[size - 1]]) {
+				// a full beam gives up its worst slot
+				final int slot = (size < beam) ? size : sorted[--size];
+				board.storeRows(rows[d], slot * height);
+				scores[d][slot] = score;
+				parents[d][slot] = parent;
+				plays[d][slot] = play;
+				int k = size;
+				while (k > 0 && score < scores[d][sorted[k - 1]]) {
+					sorted[k] = sorted[k - 1];
+					k--;
+				}
+				sorted[k] = slot;
+				sizes[d] = size + 1;
+			}
+		}
+		board.undo();
+	}
+
+	// grows the node arrays to hold beam nodes per depth
+	// for boards the size of the given one
+	private void ensureCapacity(int beam, Board board) {
+		if (this.board == null || this.board.getWidth() != board.getWidth()
+				|| this.board.getHeight() != board.getHeight())
+			this.board = new Board(board.getWidth(), board.getHeight());
+		if (beam > capacity || board.getHeight() != height) {
+			capacity = Math.max(beam, capacity);
+			height = board.getHeight();
+			for (int d = 0; d < depth; d++) {
+				rows[d] = new long[capacity * height];
+				scores[d] = new double[capacity];
+				parents[d] = new int[capacity];
+				plays[d] = new int[capacity];
+				order[d] = new int[capacity];
+			}
+		}
+	}
+}
@@ -4,21 +4,10 @@ public class BetterBrain extends LameBrain {
 		final int maxHeight = board.getMaxHeight();
 		
 		int sumHeight = 0;
-		int holes = 0;
-		int heightRange = 0;
-		// Count the holes, and sum up the heights
+		// Count the holes a whole row at a time, and sum up the heights
+		final int holes = board.countHoles();
 		for (int x = 0; x < width; x++) {
-			final int colHeight = board.getColumnHeight(x);
-			sumHeight += colHeight;
-
-			int y = colHeight - 2;	// addr of first possible hole
-			
-			while (y >= 0) {
-				if (!board.getGrid(x,y)) {
-					holes++;
-				}
-				y--;
-			}
+			sumHeight += board.getColumnHeight(x);
 		}
 		
 		double avgHeight = ((double) sumHeight) / width;
@@ -1,58 +1,153 @@
-import java.awt.*;
 import java.util.*;
 
 /**
  Represents a Tetris board -- essentially a 2-d grid
  of booleans. Supports tetris pieces and row clearning.
+ Occupancy is kept as one bit mask per row (bit x set = column x filled),
+ so boards may be at most 64 columns wide. Which piece filled each block
+ is kept in a separate byte plane -- colors belong to the drawing code.
  Has an "undo" feature that allows clients to add and remove pieces efficiently.
  Does not do any drawing or have any idea of pixels. Intead,
  just represents the abtsract 2-d board.
 */
 public final class Board  {
-   private static Color GHOST_COLOR = Color.LIGHT_GRAY;
-
    private int width;
    private int height;
 
-   // [row][col]
-   private Color[][] grid;
+   // [row] - bit col is set when (col, row) is filled
+   private long[] rows;
+   private long fullRow;   // mask of a row that is filled all the way across
+
+   // [row][col] - piece type + 1 of each block, 0 where empty
+   private byte[][] cells;
+   // A row of cells may belong to a snapshot as well, unless the board has
+   // copied it since the last snapshot() or restore() -- rowStamps[row] == stamp.
+   // Both bump stamp, so sharing every row costs nothing up front.
+   private int[] rowStamps;
+   private int stamp;
+   private BoardSnapshot snapshot;  // last snapshot taken, null once the board changes
    private int[] widths;
    private int[] heights;
    private int maxHeight;
 
-   // backup structures
-   private Color[][] backupGrid;
-   private int[] backupWidths;
-   private int[] backupHeights;
-   private int backupMaxHeight;
+   // Zobrist hash of the filled blocks -- XOR of zobrist[col + row * 64]
+   // over every filled block. The keys come from a fixed seed and are shared
+   // by every board, grown to the tallest board made so far, so boards hash
+   // the same positions to the same value.
+   private static final long ZOBRIST_SEED = 0x5DEECE66DL;
+   private static final Random zobristRandom = new Random(ZOBRIST_SEED);
+   private static long[] zobristKeys = new long[0];
+   private long[] zobrist;   // zobristKeys when this board was made, tall enough for it
+   private long hash;
+
+   // undo stack -- one preallocated journal per level, journal is the top
+   private Journal[] journals;
+   private int undoCount;      // number of levels that can still be undone
+   private Journal journal;
 
    private boolean DEBUG = false;
-   private boolean committed;
 
    private int totalLineCleared;
 
    /**
     Creates an empty board of the given width and height
-    measured in blocks.
+    measured in blocks. It supports a single level of undo().
    */
    public Board(int width, int height) {
+      this(width, height, 1);
+   }
+
+   /**
+    Creates an empty board of the given width and height that
+    can undo() up to undoDepth place()s made without a commit().
+    All undo levels are allocated up front, so searching place()/undo()
+    down to that depth does not allocate.
+   */
+   public Board(int width, int height, int undoDepth) {
+      if (undoDepth < 1)
+         throw new IllegalArgumentException("Undo depth must be at least 1: " + undoDepth);
+      if (width < 1 || width > 64)
+         throw new IllegalArgumentException("Board width must be between 1 and 64: " + width);
       this.width = width;
       this.height = height;
    
-      grid = new Color[height][width];
+      rows = new long[height];
+      fullRow = (width == 64) ? -1L : (1L << width) - 1;
+      cells = new byte[height][width];
+      rowStamps = new int[height];
       widths = new int[height]; // height many rows that represents widths
       heights = new int[width]; // width many columns that represents heights
       maxHeight = 0;
    
-      backupGrid = new Color[height][width];
-      backupWidths = new int[height];
-      backupHeights = new int[width];
-      backupMaxHeight = 0;
+      zobrist = zobristKeys(height);
+      hash = 0;
+   
+      journals = new Journal[undoDepth];
+      for (int i = 0; i < undoDepth; i++)
+         journals[i] = new Journal(width, height);
+      undoCount = 0;
    
-      committed = true;
       totalLineCleared = 0;
    }
 
+   // Returns the shared Zobrist keys, grown to cover at least the given
+   // number of rows. Keys already handed out never change, so boards
+   // holding an older, shorter array still agree with newer ones.
+   private static synchronized long[] zobristKeys(int height) {
+      if (zobristKeys.length < height * 64) {
+         long[] keys = Arrays.copyOf(zobristKeys, height * 64);
+         for (int i = zobristKeys.length; i < keys.length; i++)
+            keys[i] = zobristRandom.nextLong();
+         zobristKeys = keys;
+      }
+      return zobristKeys;
+   }
+
+   /*
+    Records only what a place() and the clearRows() after it changed,
+    so undo() costs O(blocks changed) rather than a copy of the whole grid.
+    Cleared rows are always full, so only their cells need saving.
+   */
+   private static final class Journal {
+      private int[] cells;          // x + y * width of each block place() filled
+      private int cellCount;
+      private int x;                // first column place() touched
+      private int[] heights;        // heights of the touched columns before place()
+      private int columnCount;
+      private int maxHeight;        // maxHeight before place()
+      private long hash;            // hash before place()
+
+      private int[] clearedRows;    // rows removed by clearRows(), ascending
+      private byte[] clearedCells;  // [col + i * width] for the i-th cleared row
+      private int clearCount;
+      private int[] clearHeights;   // every column height before clearRows()
+      private int clearMaxHeight;
+      private long clearHash;
+
+      private Journal(int width, int height) {
+         cells = new int[8];
+         heights = new int[width];
+         clearedRows = new int[height];
+         clearedCells = new byte[width * height];
+         clearHeights = new int[width];
+      }
+
+      // starts a new entry for a board whose max height and hash are given
+      private void reset(int maxHeight, long hash) {
+         cellCount = 0;
+         columnCount = 0;
+         clearCount = 0;
+         this.maxHeight = maxHeight;
+         this.hash = hash;
+      }
+
+      private void addCell(int index) {
+         if (cellCount == cells.length)
+            cells = Arrays.copyOf(cells, cellCount * 2);
+         cells[cellCount++] = index;
+      }
+   }
+
    /**
     Returns the width of the board in blocks.
    */
@@ -77,6 +172,26 @@ public final class Board  {
       return maxHeight;
    }
 
+   /**
+    Returns a 64-bit Zobrist hash of the filled blocks. Boards of the
+    same size with the same blocks filled have the same hash, whichever
+    pieces filled them. Kept up to date by place(), clearRows() and undo(),
+    so this is constant time.
+   */
+   public long hash() {
+      return hash;
+   }
+
+   // Returns the number of levels undo() can currently take back
+   public int getUndoCount() {
+      return undoCount;
+   }
+
+   // Returns the number of levels this board was created to undo
+   public int getUndoDepth() {
+      return journals.length;
+   }
+
    // Returns total lines cleared in current round
    public int getTotalLineCleared() {
       return totalLineCleared;
@@ -93,7 +208,7 @@ public final class Board  {
          int maxHeightCheck = 0;
          for (int row = 0; row < height; row++) {
             for (int col = 0; col < width; col++) {
-               if (grid[row][col] != null) {
+               if ((rows[row] & (1L << col)) != 0) {
                   widthCheck[row]++;
                   heightCheck[col] = row + 1;
                }
@@ -104,6 +219,12 @@ public final class Board  {
             if (heightCheck[row] != 0)
                maxHeightCheck = Math.max(maxHeightCheck, heightCheck[row]);
       
+         long hashCheck = 0;
+         for (int row = 0; row < height; row++)
+            hashCheck ^= rowHash(row);
+         if (hashCheck != hash)
+            throw new RuntimeException("Sanity check: hash not matching\nExpected: " +
+                  hashCheck + "\tActual: " + hash);
          if (maxHeightCheck != maxHeight)
             throw new RuntimeException("Sanity check: maxHeight not matching\nExpected: " +
                   maxHeightCheck + "\tActual: " + maxHeight);
@@ -150,14 +271,35 @@ public final class Board  {
       return dropHeight;
    }
 
+   /**
+    Fills out[x] with dropHeight(piece, x) for every x the piece
+    fits at, in one pass over the column heights per skirt column.
+    Returns the number of x values filled in (width - piece width + 1),
+    so out must hold at least that many.
+   */
+   public int dropHeights(Piece piece, int[] out) {
+      int[] skirt = piece.getSkirt();
+      int count = width - skirt.length + 1;
+      for (int x = 0; x < count; x++)
+         out[x] = Math.max(0, heights[x] - skirt[0]);
+      for (int i = 1; i < skirt.length; i++) {
+         for (int x = 0; x < count; x++) {
+            int drop = heights[x + i] - skirt[i];
+            if (drop > out[x])
+               out[x] = drop;
+         }
+      }
+      return count;
+   }
+
    // Prints current state of grid.
    // 0 represents empty space
    // 1 represents filled space
    public void printGrid() {
-      for (int row = grid.length - 1; row >= 0; row--) {
+      for (int row = height - 1; row >= 0; row--) {
          System.out.print(widths[row] + "|  ");
-         for (int col = 0; col < grid[0].length; col++) {
-            System.out.print(new Boolean(grid[row][col] != null).compareTo(false) + "    ");
+         for (int col = 0; col < width; col++) {
+            System.out.print(((rows[row] >>> col) & 1) + "    ");
          }
          System.out.println();
       }
@@ -171,12 +313,31 @@ public final class Board  {
    }
 
    // returns the y coordinate of ghost piece. (where the piece will land)
+   // Only reads the board, so the piece itself may or may not be placed at (x, y).
+   // When no column has blocks above the piece's skirt this is just
+   // dropHeight() -- O(piece width). Only a piece tucked under an overhang
+   // scans down row by row.
    public int ghostHeight(Piece piece, int x, int y) {
       int[] skirt = piece.getSkirt();
+      boolean overhang = false;
+      for (int col = 0; col < skirt.length; col++) {
+         if (heights[x + col] > y + skirt[col]) {
+            overhang = true;
+            break;
+         }
+      }
+      if (!overhang)
+         return dropHeight(piece, x);
+      // test the whole piece at each row, not just its skirt -- a column
+      // of the piece may have a gap a block fits in (e.g. a U pentomino)
+      int[] masks = piece.getRowMasks();
       for (int row = y - 1; row >= 0; row--) {
-         for (int col = 0; col < skirt.length; col++) {
-            Color target = grid[row + skirt[col]][x + col];
-            if (target != null) {
+         for (int i = 0; i < masks.length; i++) {
+            long blocks = rows[row + i];
+            // the piece's own blocks, if it is placed at (x, y), are not in the way
+            if (row + i >= y)
+               blocks &= ~((long) masks[row + i - y] << x);
+            if ((blocks & ((long) masks[i] << x)) != 0) {
                return row + 1;
             }
          }
@@ -202,9 +363,28 @@ public final class Board  {
       return widths[y];
    }
 
-   // Returns color of given coordinates
-   public Color getColor(int x, int y) {
-      return grid[y][x];
+   // Returns the Piece.getType() of the piece that filled the given
+   // block, or EMPTY if the block is empty
+   public int getPieceType(int x, int y) {
+      return cells[y][x] - 1;
+   }
+
+   /**
+    Returns the number of holes -- empty blocks with a filled
+    block somewhere above them in the same column.
+
+    <p>Implementation: walks the rows top-down keeping a mask of the
+    columns that are covered so far, so every column of a row is
+    handled at once -- O(max height) for any width up to 64.
+   */
+   public int countHoles() {
+      int holes = 0;
+      long covered = 0;
+      for (int row = maxHeight - 1; row >= 0; row--) {
+         holes += Long.bitCount(covered & ~rows[row]);
+         covered |= rows[row];
+      }
+      return holes;
    }
 
    /**
@@ -213,10 +393,13 @@ public final class Board  {
     always return true.
    */
    public final boolean getGrid(int x, int y) {
-      return (x < 0 || x >= width) || (y < 0 || y >= height) || (grid[y][x] != null);
+      return (x < 0 || x >= width) || (y < 0 || y >= height) || ((rows[y] & (1L << x)) != 0);
    }
 
 
+   // Returned by getPieceType() for an empty block
+   public static final int EMPTY = -1;
+
    public static final int PLACE_OK = 0;
    public static final int PLACE_ROW_FILLED = 1;
    public static final int PLACE_OUT_BOUNDS = 2;
@@ -234,65 +417,71 @@ public final class Board  {
     If the placement is "bad" --interfering with existing blocks in the grid --
     then the placement is halted partially complete and PLACE_BAD is returned.
     An undo() will remove the bad placement.
+    PLACE_BAD is also returned, without changing the board, when every
+    undo level is already in use.
    */
    public int place(Piece piece, int x, int y) {
-      if (!committed)
+      if (undoCount == journals.length)
          return PLACE_BAD;
    
-      committed = false;
-      setBackups();
+      pushJournal();
    
       if (!isValidBound(piece, x, y))
          return PLACE_OUT_BOUNDS;
       if (isBad(piece, x, y))
          return PLACE_BAD;
    
+      journal.x = x;
+      journal.columnCount = piece.getWidth();
+      System.arraycopy(heights, x, journal.heights, 0, journal.columnCount);
+   
       // change current state by putting a piece
-      // at the given position and return constants
-      Point[] body = piece.getBody();
-      int ghostHeight = ghostHeight(piece, x, y);
-      //System.out.println("ghostHeight: " + ghostHeight + ":: x = " + x + " y = " + y);
-      for (int i = 0; i < body.length; i++) {
-         int fillX = x + body[i].x;
-         int fillY = y + body[i].y;
-         // fill in ghost piece first to override colors
-         // when the piece is at landing location
-         //System.out.println(dropHeight(piece, x) + body[i].y + ", " + fillX);
-         int ghostY = ghostHeight + body[i].y;
-      
-         // this comparison is to prevent ghost from being dominant 
-         // when it's overlapped with actual block
-         if (grid[ghostY][fillX] == null)
-            grid[ghostY][fillX] = GHOST_COLOR;
-         grid[fillY][fillX] = piece.getColor();
-      }
-      setWidths();
-      setHeights();
+      // at the given position and return constants.
+      // The board only holds real blocks -- the ghost piece is drawn by JTetris
+      modify();
+      int[] masks = piece.getRowMasks();
+      byte cell = (byte) (piece.getType() + 1);
+      for (int i = 0; i < masks.length; i++)
+         for (int mask = masks[i]; mask != 0; mask &= mask - 1)
+            fill(x + Integer.numberOfTrailingZeros(mask), y + i, cell);
       if (isCleared())
          return PLACE_ROW_FILLED;
       sanityCheck();
       return PLACE_OK;
    }
 
-   // sets backup for all the necessary parts of the board
-   private void setBackups() {
-      // src, srcpos, dest, destpos, length
-      System.arraycopy(widths, 0, backupWidths, 0, widths.length);
-      System.arraycopy(heights, 0, backupHeights, 0, heights.length);
-      backupMaxHeight = maxHeight;
-      for (int i = 0; i < height; i++) {
-         System.arraycopy(grid[i], 0, backupGrid[i], 0, width);
+   // fills a single empty block and updates widths, heights and maxHeight
+   // from that block alone, so a placement costs O(piece size)
+   private void fill(int x, int y, byte cell) {
+      rows[y] |= 1L << x;
+      widths[y]++;
+      hash ^= zobrist[x + (y << 6)];
+      journal.addCell(x + y * width);
+      if (y >= heights[x]) {
+         heights[x] = y + 1;
+         if (heights[x] > maxHeight)
+            maxHeight = heights[x];
       }
+      cellRow(y)[x] = cell;
+   }
+
+   /**
+    Returns true if the piece could be placed at (x, y) -- it is inside
+    the board and does not overlap any filled block. Does not change the
+    board, so it can be used to test moves without a place()/undo().
+   */
+   public boolean canPlace(Piece piece, int x, int y) {
+      return isValidBound(piece, x, y) && !isBad(piece, x, y);
    }
 
    // after a piece was dropped, checks whether the place did/didn't
    // overlap with blocks already filled in.
+   // Bounds are already checked by isValidBound, so each row of the
+   // piece is a single shift and AND against the board row.
    private boolean isBad(Piece piece, int xOrigin, int yOrigin) {
-      Point[] body = piece.getBody();
-      for (int i = 0; i < body.length; i++) {
-         int x = body[i].x + xOrigin;
-         int y = body[i].y + yOrigin;
-         if (getGrid(x, y)) {
+      int[] masks = piece.getRowMasks();
+      for (int i = 0; i < masks.length; i++) {
+         if ((rows[yOrigin + i] & ((long) masks[i] << xOrigin)) != 0) {
             return true;
          }
       }
@@ -314,7 +503,7 @@ public final class Board  {
    // any filled rows. Returns false otherwise.
    private boolean isCleared() {
       for (int i = 0; i < maxHeight; i++)
-         if (widths[i] == width)
+         if (rows[i] == fullRow)
             return true;
       return false;
    }
@@ -329,158 +518,304 @@ public final class Board  {
     Note that more than one row may be filled.
    */
    public boolean clearRows() {
-      boolean isCleared = false;
-      int nextSpot = 0; // nextRow
+      // find the full rows first, so the survivors can be moved in runs
+      int lineCleared = 0;
       for (int i = 0; i < maxHeight; i++) {
-         if (widths[i] == width && !isCleared) {
-            nextSpot = i;
-            isCleared = true;
-         } else if (widths[i] != width && isCleared) {
-            for (int col = 0; col < width; col++)
-               grid[nextSpot][col] = grid[i][col];
-            nextSpot++;
+         if (rows[i] == fullRow) {
+            if (lineCleared == 0) {
+               // first cleared row -- remember the heights it is about to change
+               if (undoCount == 0)
+                  pushJournal();
+               System.arraycopy(heights, 0, journal.clearHeights, 0, width);
+               journal.clearMaxHeight = maxHeight;
+               journal.clearHash = hash;
+            }
+            System.arraycopy(cells[i], 0, journal.clearedCells, lineCleared * width, width);
+            journal.clearedRows[lineCleared] = i;
+            lineCleared++;
          }
       }
       // to stop unnecessary modification to grid
-      if (!isCleared)
-         return isCleared;
+      if (lineCleared == 0)
+         return false;
+      modify();
+   
+      // every row from the lowest cleared one up changes position,
+      // so take those rows out of the hash and put them back after the move
+      int firstCleared = journal.clearedRows[0];
+      for (int row = firstCleared; row < maxHeight; row++)
+         hash ^= rowHash(row);
    
+      // each run of surviving rows above a cleared row drops by the
+      // number of cleared rows below it, in one bulk copy per run
+      for (int j = 0; j < lineCleared; j++) {
+         int from = journal.clearedRows[j] + 1;
+         int to = (j + 1 < lineCleared) ? journal.clearedRows[j + 1] : maxHeight;
+         moveRows(from, from - (j + 1), to - from);
+      }
+      int nextSpot = maxHeight - lineCleared;
+      Arrays.fill(rows, nextSpot, maxHeight, 0L);
+      Arrays.fill(widths, nextSpot, maxHeight, 0);
       for (int row = nextSpot; row < maxHeight; row++)
-         for (int col = 0; col < width; col++)
-            grid[row][col] = null;
-      //int lineCleared = maxHeight - nextSpot;
-      //maxHeight = maxHeight - lineCleared;
-      //maxHeight = maxHeight - (maxHeight - nextSpot)
-      //          = nextSpot
-      int lineCleared = maxHeight - nextSpot;
+         clearCellRow(row);
+      for (int row = firstCleared; row < nextSpot; row++)
+         hash ^= rowHash(row);
+      journal.clearCount = lineCleared;
       totalLineCleared += lineCleared;
-      shiftWidths();
-      // maxHeight = nextSpot; or in current place
-      setHeights();
-      committed = false;
+      shiftHeights(lineCleared);
       //printGrid();
       sanityCheck();
-      return isCleared;
+      return true;
    }
 
-   // opt - setWidths(int maxHeight), setHeights(int maxHeight)
-   // setWidths(piece, x, y), setHeights(piece, x, y)
-
-   // sets width (called from place)
-   private void setWidths() {
-      for (int i = 0; i < height; i++) {
-         int rowCount = 0;
-         for (int j = 0; j < width; j++) {
-            if (grid[i][j] != null)
-               rowCount++;
-         }
-         widths[i] = rowCount;
-      }
+   // Returns the XOR of the Zobrist keys of the filled blocks in the given row
+   private long rowHash(int row) {
+      long rowHash = 0;
+      for (long mask = rows[row]; mask != 0; mask &= mask - 1)
+         rowHash ^= zobrist[Long.numberOfTrailingZeros(mask) + (row << 6)];
+      return rowHash;
    }
 
-   // sets height and max height so that internal structures
-   // have share the same state
-   private void setHeights() {
-      maxHeight = 0;
-      for(int i = 0; i < width; i++) {
-         int colHeight = 0;
-         for (int j = height - 1; j >= 0; j--) {
-            if (grid[j][i] != null) {
-               colHeight = j + 1;
-               if (colHeight > maxHeight) {
-                  maxHeight = colHeight;
-               }
-               heights[i] = colHeight;
-               break;
-            }
-            if (j == 0)
-               heights[i] = 0;
-         }
-      
-      }
-   }
-
-   // called from clearRows - shifting down, same algorithm as clearRows
-   // setting max h = single statement
-   private void shiftWidths() {
-      boolean isCleared = false;
-      int nextSpot = 0;
-      for (int i = 0; i < maxHeight; i++) {
-         if (widths[i] == width && !isCleared) {
-            nextSpot = i;
-            isCleared = true;
-         } else if (widths[i] != width && isCleared) {
-            widths[nextSpot] = widths[i];
-            nextSpot++;
-         }
-      }
-      if (isCleared) {
-         for (int row = nextSpot; row < maxHeight; row++)
-            widths[row] = 0;
-         maxHeight = nextSpot;
+   // moves count rows starting at row src so they start at row dst.
+   // The masks and widths move in one copy per array; the cells row by row,
+   // in the order that does not overwrite a row before it has moved.
+   private void moveRows(int src, int dst, int count) {
+      System.arraycopy(rows, src, rows, dst, count);
+      System.arraycopy(widths, src, widths, dst, count);
+      if (dst < src) {
+         for (int k = 0; k < count; k++)
+            setCellRow(dst + k, cells[src + k], 0);
+      } else {
+         for (int k = count - 1; k >= 0; k--)
+            setCellRow(dst + k, cells[src + k], 0);
       }
    }
 
-   // called from clearRow - h -= linecleard
+   // called from clearRows - h -= lineCleared, then walks down past
+   // any holes that were uncovered by the clear.
+   // Every cleared row was full, so each column's top block sat at or above
+   // all of them and can only have moved down by lineCleared or more.
    // setting max h = O(width)
-   // height doesnt set properly in case where cleared row is above
-   // line that contains holes
    private void shiftHeights(int lineCleared) {
+      maxHeight = 0;
       for (int i = 0; i < width; i++) {
-         heights[i] -= lineCleared;
-         // maxHeight = Math.max(maxHeight, heights[i]);
+         long bit = 1L << i;
+         int colHeight = heights[i] - lineCleared;
+         while (colHeight > 0 && (rows[colHeight - 1] & bit) == 0)
+            colHeight--;
+         heights[i] = colHeight;
+         if (colHeight > maxHeight)
+            maxHeight = colHeight;
       }
    }
 
    /**
     If a place() happens, optionally followed by a clearRows(),
     a subsequent undo() reverts the board to its state before
-    the place(). If the conditions for undo() are not met, such as
-    calling undo() twice in a row, then the second undo() does nothing.
+    the place(). Each undo() takes back one place(), up to the undo depth
+    the board was created with. If there is nothing left to undo, such as
+    calling undo() twice in a row on a single level board, then the second
+    undo() does nothing.
     See the overview docs.
    */
    public void undo() {
-      if (!committed) {
-         int tempMaxHeight = maxHeight;
-         maxHeight = backupMaxHeight;
-         backupMaxHeight = tempMaxHeight;
-      
-         int[] tempWidth = widths;
-         widths = backupWidths;
-         backupWidths = tempWidth;
-      
-         int[] tempHeight = heights;
-         heights = backupHeights;
-         backupHeights = tempHeight;
+      if (undoCount > 0) {
+         if (journal.cellCount > 0 || journal.clearCount > 0)
+            modify();
+         if (journal.clearCount > 0)
+            undoClear();
       
-         Color[][] tempGrid = grid;
-         grid = backupGrid;
-         backupGrid = tempGrid;
-      
-         committed = true;
+         // take back the blocks place() filled
+         for (int i = 0; i < journal.cellCount; i++) {
+            int index = journal.cells[i];
+            int y = index / width;
+            rows[y] &= ~(1L << (index - y * width));
+            widths[y]--;
+            cellRow(y)[index - y * width] = 0;
+         }
+         System.arraycopy(journal.heights, 0, heights, journal.x, journal.columnCount);
+         maxHeight = journal.maxHeight;
+         hash = journal.hash;
+         popJournal();
       }
       sanityCheck();
    }
 
+   // reverses clearRows() - from the top down, moves each run of
+   // surviving rows back up and copies the cleared row below it back in
+   private void undoClear() {
+      for (int j = journal.clearCount - 1; j >= 0; j--) {
+         int cleared = journal.clearedRows[j];
+         int to = (j + 1 < journal.clearCount) ? journal.clearedRows[j + 1] : journal.clearMaxHeight;
+         moveRows(cleared - j, cleared + 1, to - cleared - 1);
+         rows[cleared] = fullRow;
+         widths[cleared] = width;
+         setCellRow(cleared, journal.clearedCells, j * width);
+      }
+      System.arraycopy(journal.clearHeights, 0, heights, 0, width);
+      maxHeight = journal.clearMaxHeight;
+      hash = journal.clearHash;
+      totalLineCleared -= journal.clearCount;
+      journal.clearCount = 0;
+   }
+
+
+   // starts a new undo level for the current state of the board
+   private void pushJournal() {
+      journal = journals[undoCount++];
+      journal.reset(maxHeight, hash);
+   }
+
+   // drops the top undo level once it has been replayed
+   private void popJournal() {
+      undoCount--;
+      journal = (undoCount > 0) ? journals[undoCount - 1] : null;
+   }
 
    /**
     Puts the board in the committed state.
-      - place(), clearRows() ---> committed = false
-      - undo(), commit() ---> committed = true
+      - place() ---> pushes an undo level (clearRows() joins the top one,
+        or pushes its own if the board was committed)
+      - undo() ---> pops one level, commit() ---> drops every level
    */
    public void commit() {
-      committed = true;
+      undoCount = 0;
+      journal = null;
    }
 
-   public Color[][] returnGrid() { 
-      return grid; 
+   /**
+    Returns an immutable view of the board as it is now, which
+    stays valid however the board changes later. Calling it again
+    before the board changes returns the same snapshot. Otherwise
+    it copies the row masks up to the max height and the column heights,
+    and shares the rows of piece types -- the board copies a shared row
+    only when it next writes to that row, so e.g. a snapshot per tick
+    costs the few rows the falling piece touches, not the whole grid.
+   */
+   public BoardSnapshot snapshot() {
+      if (snapshot == null) {
+         long[] snapshotRows = new long[height];
+         System.arraycopy(rows, 0, snapshotRows, 0, maxHeight);
+         snapshot = new BoardSnapshot(width, height, snapshotRows, cells.clone(), heights.clone(),
+               maxHeight, hash, totalLineCleared);
+         stamp++;   // every row is shared now
+      }
+      return snapshot;
    }
-   
-   public int[] returnHeights() { 
-      return heights; 
+
+   /**
+    Makes this board hold what the snapshot holds, in the committed state.
+    The snapshot must come from a board of the same size, e.g. to give
+    another thread its own copy of a board to search on. The board shares
+    the snapshot's rows of piece types until it writes to them.
+   */
+   public void restore(BoardSnapshot snapshot) {
+      if (snapshot.getWidth() != width || snapshot.getHeight() != height)
+         throw new IllegalArgumentException("Snapshot is " + snapshot.getWidth() + "x"
+               + snapshot.getHeight() + ", board is " + width + "x" + height);
+      modify();
+      snapshot.copyTo(rows, cells, heights);
+      for (int y = 0; y < height; y++)
+         widths[y] = Long.bitCount(rows[y]);
+      stamp++;   // every row is shared with the snapshot now
+      maxHeight = snapshot.getMaxHeight();
+      hash = snapshot.hash();   // every board shares the Zobrist keys
+      totalLineCleared = snapshot.getTotalLineCleared();
+      commit();
+      sanityCheck();
    }
-   
-   public int[] returnWidths() { 
-      return widths; 
+
+   /**
+    Makes this board hold what the other board holds, in the committed state,
+    without allocating unless a snapshot shares some of this board's rows.
+    The boards must be the same size. Blocks the other board has not
+    committed are copied too.
+   */
+   public void copyFrom(Board other) {
+      if (other.width != width || other.height != height)
+         throw new IllegalArgumentException("Board is " + other.width + "x"
+               + other.height + ", this board is " + width + "x" + height);
+      modify();
+      System.arraycopy(other.rows, 0, rows, 0, height);
+      for (int y = 0; y < height; y++)
+         setCellRow(y, other.cells[y], 0);
+      System.arraycopy(other.widths, 0, widths, 0, height);
+      System.arraycopy(other.heights, 0, heights, 0, width);
+      maxHeight = other.maxHeight;
+      hash = other.hash;   // every board shares the Zobrist keys
+      totalLineCleared = other.totalLineCleared;
+      commit();
+      sanityCheck();
+   }
+
+   /**
+    Copies the row masks -- bit col of a row is set when (col, row) is
+    filled -- into masks[offset] up to masks[offset + getHeight() - 1],
+    e.g. so a search can keep many boards as plain longs.
+   */
+   public void storeRows(long[] masks, int offset) {
+      System.arraycopy(rows, 0, masks, offset, height);
+   }
+
+   /**
+    Makes the board hold the blocks stored by storeRows() at the given
+    offset, in the committed state. The line count is left as it is.
+    Masks carry no piece types, so getPieceType() is EMPTY for every
+    block afterwards -- such boards are for searching, not drawing.
+   */
+   public void loadRows(long[] masks, int offset) {
+      modify();
+      System.arraycopy(masks, offset, rows, 0, height);
+      for (int y = 0; y < height; y++)
+         clearCellRow(y);
+      Arrays.fill(heights, 0);
+      maxHeight = 0;
+      hash = 0;
+      for (int y = 0; y < height; y++) {
+         widths[y] = Long.bitCount(rows[y]);
+         if (rows[y] != 0) {
+            for (long mask = rows[y]; mask != 0; mask &= mask - 1)
+               heights[Long.numberOfTrailingZeros(mask)] = y + 1;
+            maxHeight = y + 1;
+            hash ^= rowHash(y);
+         }
+      }
+      commit();
+      sanityCheck();
+   }
+
+   // called before the board changes -- drops the cached snapshot
+   private void modify() {
+      snapshot = null;
+   }
+
+   // Returns the given row of cells to write to,
+   // first taking a private copy if a snapshot shares it
+   private byte[] cellRow(int y) {
+      if (rowStamps[y] != stamp) {
+         cells[y] = cells[y].clone();
+         rowStamps[y] = stamp;
+      }
+      return cells[y];
+   }
+
+   // sets the given row of cells to width bytes of src from offset
+   private void setCellRow(int y, byte[] src, int offset) {
+      if (rowStamps[y] != stamp) {
+         cells[y] = Arrays.copyOfRange(src, offset, offset + width);
+         rowStamps[y] = stamp;
+      } else {
+         System.arraycopy(src, offset, cells[y], 0, width);
+      }
+   }
+
+   // empties the given row of cells
+   private void clearCellRow(int y) {
+      if (rowStamps[y] != stamp) {
+         cells[y] = new byte[width];
+         rowStamps[y] = stamp;
+      } else {
+         Arrays.fill(cells[y], (byte) 0);
+      }
    }
 }
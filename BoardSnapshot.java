@@ -0,0 +1,90 @@
+/**
+ An immutable view of a Board at the moment Board.snapshot() was called.
+ Safe to hand to other threads -- later changes to the board never show
+ through. Supports the same read-only queries as Board.
+
+ Taking one copies only the row masks up to the max height and the column
+ heights. The rows of piece types are shared with the board, which copies
+ a row for itself only when it next writes to that row -- so a snapshot
+ costs O(height) plus the rows the board changes afterwards, not a copy
+ of the whole grid.
+*/
+public final class BoardSnapshot {
+   private final int width;
+   private final int height;
+   private final long[] rows;     // [row] - bit col is set when (col, row) is filled
+   private final byte[][] cells;  // [row][col] - piece type + 1, 0 where empty
+   private final int[] heights;
+   private final int maxHeight;
+   private final long hash;
+   private final int totalLineCleared;
+
+   // Only Board.snapshot() creates these. The arrays are owned by
+   // the snapshot from here on and are never written again -- a board
+   // sharing a row of cells copies it before writing to it.
+   BoardSnapshot(int width, int height, long[] rows, byte[][] cells, int[] heights,
+                 int maxHeight, long hash, int totalLineCleared) {
+      this.width = width;
+      this.height = height;
+      this.rows = rows;
+      this.cells = cells;
+      this.heights = heights;
+      this.maxHeight = maxHeight;
+      this.hash = hash;
+      this.totalLineCleared = totalLineCleared;
+   }
+
+   // Returns the width of the board in blocks.
+   public int getWidth() {
+      return width;
+   }
+
+   // Returns the height of the board in blocks.
+   public int getHeight() {
+      return height;
+   }
+
+   // Returns the max column height present in the board.
+   public int getMaxHeight() {
+      return maxHeight;
+   }
+
+   // Returns the Zobrist hash the board had, see Board.hash()
+   public long hash() {
+      return hash;
+   }
+
+   // Returns total lines cleared when the snapshot was taken
+   public int getTotalLineCleared() {
+      return totalLineCleared;
+   }
+
+   // Returns the height of the given column
+   public int getColumnHeight(int x) {
+      return heights[x];
+   }
+
+   // Returns the number of filled blocks in the given row
+   public int getRowWidth(int y) {
+      return Long.bitCount(rows[y]);
+   }
+
+   // Returns the Piece.getType() that filled the given block, or Board.EMPTY
+   public int getPieceType(int x, int y) {
+      return cells[y][x] - 1;
+   }
+
+   // Returns true if the given block is filled. Blocks outside
+   // of the board always return true, as with Board.getGrid().
+   public boolean getGrid(int x, int y) {
+      return (x < 0 || x >= width) || (y < 0 || y >= height) || ((rows[y] & (1L << x)) != 0);
+   }
+
+   // Copies the blocks into a board's own arrays, see Board.restore().
+   // The rows of cells are shared, not copied -- the board marks them so.
+   void copyTo(long[] rows, byte[][] cells, int[] heights) {
+      System.arraycopy(this.rows, 0, rows, 0, height);
+      System.arraycopy(this.cells, 0, cells, 0, height);
+      System.arraycopy(this.heights, 0, heights, 0, width);
+   }
+}
@@ -7,6 +7,12 @@ public interface Brain {
 		public int y;
 		public Piece piece;
 		public double score;	// lower scores are better
+		
+		// JTetris verbs that take the piece from where it spawns to
+		// (x, y) and lock it there, ending in DROP -- verbCount of them.
+		// verbs is reused by the next bestMove() given this move.
+		public int[] verbs;
+		public int verbCount;
 	}
 	
 	/**
@@ -17,6 +23,16 @@ public interface Brain {
 	  come to rest -- typically 20.
 	 If the passed in move is non-null, it is used to hold the result
 	 (just to save the memory allocation).
+	 The move's verbs are a plan for playing it from the spawn position,
+	 or verbCount is 0 if the brain does not make plans.
 	*/
 	public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move);
+	
+	/**
+	 As above, but also told the pieces that come after this one:
+	 preview[0] is played next, up to preview[previewCount - 1].
+	 A brain that does not look ahead may ignore them.
+	*/
+	public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+			int limitHeight, Brain.Move move);
 }
@@ -24,11 +24,10 @@ public class Hold extends JComponent {
          // clearRect(x, y, width, height);
       } else {
          int middleX = 25;
-         Point[] body = currentPiece.getBody();
-         for (Point p : body) {
-            int x = middleX + p.x * SIZE;
-            int y = (currentPiece.getHeight() - p.y) * SIZE;
-            g.setColor(currentPiece.getColor());
+         for (int i = 0; i < currentPiece.getBodySize(); i++) {
+            int x = middleX + currentPiece.getBodyX(i) * SIZE;
+            int y = (currentPiece.getHeight() - currentPiece.getBodyY(i)) * SIZE;
+            g.setColor(JTetris.getColor(currentPiece.getType()));
             g.fillRect(x, y, SIZE, SIZE);
             g.setColor(Color.WHITE);
             g.drawRect(x, y, SIZE, SIZE);
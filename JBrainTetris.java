@@ -1,5 +1,7 @@
 import java.awt.*;
 import java.awt.event.*;
+import java.io.*;
+import java.util.concurrent.*;
 import javax.swing.*;
 
 /**
@@ -8,22 +10,58 @@ Tetris with Brain feature that auto plays pieces.
 
 public class JBrainTetris extends JTetris {
 	private static final boolean BRAIN_DEBUG = false;
+	// most time the brain may think in a tick, so the timer keeps its pace
+	private static final long THINK_NANOS = 8 * 1000000L;
 
 	private Brain brain;
 	private boolean isBrainLoaded;
 
 	private Brain.Move currentMove;
+	private int cursor;	// next verb of currentMove to play
 	private int prevCount;
+	private Piece[] preview;	// the queue's upcoming pieces, for the brain
+
+	// While a piece falls, searchBrain works out the move for the next piece
+	// in the queue on its own thread and board, assuming the current plan
+	// lands as planned. Only the search thread touches these two.
+	private Brain searchBrain;
+	private Board searchBoard;
+	private ExecutorService searcher;
+	private Future<Speculation> speculation;
+
+	// what the background search came up with: the move for piece
+	// on the board whose hash() is key
+	private static class Speculation {
+		long key;
+		Piece piece;
+		Brain.Move move;
+	}
 
 	// constructs initial setup for tetris with the given width and height.
 	// Sample width and height calculation : 
 	// int pixels = 16;
     // new JBrainTetris(WIDTH * pixels + 2, (HEIGHT + TOP_SPACE) * pixels + 2);
 	public JBrainTetris(int width, int height) {
-		super(width, height);
-		brain = new BetterBrain();
+		this(width, height, Piece.getPieces());
+	}
+
+	// constructs a tetris with the brain that plays the given piece set
+	public JBrainTetris(int width, int height, Piece[] pieces) {
+		super(width, height, pieces);
+		brain = new LookaheadBrain(new BetterBrain());
 		isBrainLoaded = false;
 		prevCount = count;
+		preview = new Piece[TetrisQueue.LENGTH];
+
+		searchBrain = new LookaheadBrain(new BetterBrain());
+		searchBoard = new Board(board.getWidth(), board.getHeight());
+		searcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "brain search");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 	}
 
 	// Returns control panel used for tetris with an added AI feature 
@@ -43,72 +81,130 @@ public class JBrainTetris extends JTetris {
 		return panel;
 	}
 
-	// before tick(TICK_DOWN) happens, brain makes its move
+	// while the brain has a plan for the current piece, each tick(TICK_DOWN)
+	// plays its next verb instead of moving the piece down, so the plan
+	// replays exactly as the brain searched it.
 	// Need to keep track of prevCount to check if it's equal to current count
 	// Brain.Move has target x, y, piece, score - lower the better
 	public void tick(int verb) {
-		if (isBrainLoaded && verb == TICK_DOWN) {
+		if (isBrainLoaded && gameOn && verb == TICK_DOWN) {
 			if (BRAIN_DEBUG) 
 				System.out.println("if statement in tick");
 			int move = getVerb();
 			if (move != -1) {
 				super.tick(move);
+				return;
 			}
 		}
 		super.tick(verb);
 	}
 
-	// preferrably rotate before translating (or alternate) since 
-	// there's no wall kicking right now
-	// 
-	// there are target x, y, piece and current x, y, piece
-	// strategy (draft) : perform an operation with maximum operation-distance 
-	// 		also consider that tick(TICK_DOWN) is performed every DELAY
-	//
-	// MAYBE an object that has a count down that performs operations 
-	// based on which one has the highest priority. it contains information about
-	// current and target move	
+	// Returns the next verb of the plan for the current piece, or -1 if there
+	// is none left. The plan is worked out once, when a new piece shows up at
+	// the top; after that each call just steps the cursor.
 	public int getVerb() {
 		if (prevCount != count || currentMove == null) {
 			if (BRAIN_DEBUG)
 				System.out.println("prevCount " + prevCount + "  currentMove " + currentMove);
-			currentMove = brain.bestMove(board, currentPiece, HEIGHT, currentMove);
 			prevCount = count;
+			cursor = 0;
+			// the brain wants the board without the piece in play
+			board.undo();
+			long deadline = System.nanoTime() + thinkNanos();
+			Brain.Move move = takeSpeculation(deadline);
+			if (move == null) {
+				int previewCount = queue.getPreview(preview);
+				if (brain instanceof AnytimeBrain)
+					move = ((AnytimeBrain) brain).bestMove(board, currentPiece, preview, previewCount,
+							HEIGHT, deadline, currentMove);
+				else
+					move = brain.bestMove(board, currentPiece, preview, previewCount,
+							HEIGHT, currentMove);
+			}
+			currentMove = move;
+			// plans start from the spawn position -- if the brain was switched
+			// on while this piece was already falling, leave the piece be
+			if (currentMove != null && !atSpawn())
+				cursor = currentMove.verbCount;
+			else
+				speculate();
+			board.place(currentPiece, currentX, currentY);
 		}
 		// e.g. when the game is over
-		if (currentMove == null) {
+		if (currentMove == null || cursor >= currentMove.verbCount) {
 			return -1;
 		}
-		int dx = currentX - currentMove.x;
-		// int dy = currentY - currentMove.y; // perhaps used for better AI that uses soft drop
-		int dRotation = rotationCount(currentPiece, currentMove.piece);
-		if (BRAIN_DEBUG)
-			System.out.println("after rotationCount method");
-		if (dRotation < 0) {
-			return ROTATE_LEFT;
-		} else if (dRotation > 0) {
-			return ROTATE_RIGHT;
-		} else if (dx < 0) { // counter clockwise once is +1, twice is +2, three times is -1
-			return RIGHT;
-		} else if (dx > 0) {
-			return LEFT;
-		} else { 
-			return DROP;
-		}
+		return currentMove.verbs[cursor++];
 	}
 
-	// Returns the number of rotations needed to get current piece to target piece.
-	// [counter clockwise once is +1, twice is +2, three times is -1 to 
-	// minimize rotations to get to target piece]
-	public int rotationCount(Piece current, Piece target) {
-		int rotationCount = 0;
-		while (!current.equals(target)) {
-			rotationCount++;
-			current = current.rightRotation();
+	// Starts searching the next piece on the board the current plan will leave.
+	// The board must not have the piece in play on it.
+	private void speculate() {
+		// the next piece, with the ones queued behind it as its preview
+		final Piece[] nextPreview = new Piece[TetrisQueue.LENGTH];
+		final int nextCount = queue.getPreview(nextPreview) - 1;
+		if (currentMove == null || nextCount < 0)
+			return;
+		final Piece next = nextPreview[0];
+		System.arraycopy(nextPreview, 1, nextPreview, 0, nextCount);
+		final BoardSnapshot start = board.snapshot();
+		final Piece piece = currentMove.piece;
+		final int x = currentMove.x;
+		final int y = currentMove.y;
+		speculation = searcher.submit(new Callable<Speculation>() {
+			public Speculation call() {
+				searchBoard.restore(start);
+				int result = searchBoard.place(piece, x, y);
+				if (result > Board.PLACE_ROW_FILLED)
+					return null;
+				if (result == Board.PLACE_ROW_FILLED)
+					searchBoard.clearRows();
+				searchBoard.commit();
+				Speculation found = new Speculation();
+				found.key = searchBoard.hash();
+				found.piece = next;
+				found.move = searchBrain.bestMove(searchBoard, next, nextPreview, nextCount, HEIGHT, null);
+				return found;
+			}
+		});
+	}
+
+	// Returns how long the brain may think about a new piece: THINK_NANOS,
+	// or a quarter of a tick if the game is going faster than that
+	private long thinkNanos() {
+		return Math.min(THINK_NANOS, timer.getDelay() * 1000000L / 4);
+	}
+
+	// Returns the background search's move if it was made for this board
+	// and the piece in play, or null if the prediction did not hold (e.g. the
+	// player moved the piece or used hold). Waits for a search still running
+	// until the deadline -- past that the brain's quick answer has to do.
+	private Brain.Move takeSpeculation(long deadline) {
+		if (speculation == null)
+			return null;
+		Future<Speculation> pending = speculation;
+		speculation = null;
+		Speculation found;
+		try {
+			found = pending.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			pending.cancel(false);
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Brain search failed", e.getCause());
 		}
-		if (rotationCount == 3)
-			rotationCount = -1;
-		return rotationCount;
+		if (found == null || found.key != board.hash() || !found.piece.equals(currentPiece))
+			return null;
+		return found.move;
+	}
+
+	// true if the current piece is still where addNewPiece() put it
+	private boolean atSpawn() {
+		return currentX == (board.getWidth() - currentPiece.getWidth()) / 2
+			&& currentY == board.getHeight() - currentPiece.getHeight();
 	}
 
    /*
@@ -116,6 +212,8 @@ public class JBrainTetris extends JTetris {
    installs the JTetris or JBrainTetris,
    checks the testMode state,
    install the controls in the WEST.
+   Run with "pieces <file>" to play a piece set from Piece.loadPieces(),
+   e.g. pentominoes.txt.
    */
    public static void main(String[] args) {
       JFrame frame = new JFrame("Tetris 2000");
@@ -127,9 +225,19 @@ public class JBrainTetris extends JTetris {
          UIManager.getCrossPlatformLookAndFeelClassName() );
       } catch (Exception ignored) {}
       
+      Piece[] pieces = Piece.getPieces();
+      if (args.length > 1 && args[0].equals("pieces")) {
+         try {
+            pieces = Piece.loadPieces(args[1]);
+         } catch (IOException e) {
+            System.err.println("Could not read pieces from " + args[1] + ": " + e.getMessage());
+            return;
+         }
+      }
+      
       // Could create a JTetris or JBrainTetris here
       final int pixels = 16;
-      JTetris tetris = new JTetris(WIDTH * pixels + 2, (HEIGHT + TOP_SPACE) * pixels + 2);
+      JTetris tetris = new JBrainTetris(WIDTH * pixels + 2, (HEIGHT + TOP_SPACE) * pixels + 2, pieces);
       container.add(tetris, BorderLayout.CENTER);
       
       if (args.length != 0 && args[0].equals("test")) {
@@ -20,6 +20,21 @@ public class JTetris extends JComponent {
    // If a piece is sticking up into this area
    // when it has landed -- game over!
    public static final int TOP_SPACE = 4;   
+
+   // Color of the ghost piece, drawn where the current piece would land
+   protected static final Color GHOST_COLOR = Color.LIGHT_GRAY;
+
+   // Piece colors indexed by Piece.getType(). The board and pieces
+   // only store the type, so this is the one place colors are decided.
+   private static final Color[] PALETTE = {
+      Color.CYAN,       // 0  I
+      Color.ORANGE,     // 1  L
+      Color.BLUE,       // 2  J
+      Color.GREEN,      // 3  S
+      Color.RED,        // 4  Z
+      Color.YELLOW,     // 5  O
+      Color.MAGENTA     // 6  T
+   };
    
    // When this is true, plays a fixed sequence of 100 pieces
    protected boolean testMode = false;
@@ -73,11 +88,17 @@ public class JTetris extends JComponent {
 
 
    public JTetris(int width, int height) {
+      this(width, height, Piece.getPieces());
+   }
+
+   // Plays with the given piece set instead of the standard tetrominoes,
+   // e.g. one from Piece.loadPieces()
+   public JTetris(int width, int height, Piece[] pieces) {
       super();
       setPreferredSize(new Dimension(width, height));
       gameOn = false;
       holdPressed = false;
-      pieces = Piece.getPieces();
+      this.pieces = pieces;
       queue = new TetrisQueue(pieces);
       board = new Board(WIDTH, HEIGHT + TOP_SPACE);
       hold = new Hold();
@@ -472,15 +493,42 @@ public class JTetris extends JComponent {
                if (filled)
                   g.setColor(Color.GREEN);
                else
-                  g.setColor(board.getColor(x, y));
+                  g.setColor(getColor(board.getPieceType(x, y)));
                g.fillRect(left + 1, yPixel(y) + 1, dx, dy);	// +1 to leave a white border
                g.setColor(Color.BLACK);
                g.drawRect(left + 1, yPixel(y) + 1, dx, dy);
             }
          }
       }
+      paintGhost(g, dx, dy);
+   }
+
+   // Draws the ghost piece as an overlay where the current piece
+   // would land. The board never stores it, so it is only computed
+   // here, when something is actually drawn.
+   private void paintGhost(Graphics g, int dx, int dy) {
+      if (currentPiece == null)
+         return;
+      int ghostY = board.ghostHeight(currentPiece, currentX, currentY);
+      for (int i = 0; i < currentPiece.getBodySize(); i++) {
+         int x = currentX + currentPiece.getBodyX(i);
+         int y = ghostY + currentPiece.getBodyY(i);
+         // the ghost stays behind blocks, including the piece itself
+         if (!board.getGrid(x, y)) {
+            g.setColor(GHOST_COLOR);
+            g.fillRect(xPixel(x) + 1, yPixel(y) + 1, dx, dy);
+            g.setColor(Color.BLACK);
+            g.drawRect(xPixel(x) + 1, yPixel(y) + 1, dx, dy);
+         }
+      }
    }
    
+   // Returns the color used to draw pieces of the given Piece.getType().
+   // Piece sets larger than the palette reuse its colors.
+   public static Color getColor(int type) {
+      return PALETTE[type % PALETTE.length];
+   }
+
    // Updates the timer to reflect the current setting of the
    // speed slider.
    public void updateTimer() {
@@ -1,17 +1,21 @@
 /**
  A simple Brain implementation.
- bestMove() iterates through all the possible x values
- and rotations to play a particular piece (there are only
- around 10-30 ways to play a piece).
+ bestMove() iterates through all the positions a piece
+ can reach from where it spawns -- every x value and rotation,
+ plus any tucks under overhangs (MoveGenerator finds them).
  
  For each play, it uses the rateBoard() message to rate how
  good the resulting board is and it just remembers the
- play with the lowest score. Undo() is used to back-out
+ play with the lowest score, along with the verbs that
+ get the piece there. Undo() is used to back-out
  each play before trying the next. To experiment with writing your own
  brain -- just subclass off LameBrain and override rateBoard().
 */
 
 public class LameBrain implements Brain {
+	private MoveGenerator moves = new MoveGenerator();
+	private TranspositionTable table;	// if set, evaluate() looks boards up in it
+	
 	/**
 	 Given a piece and a board, returns a move object that represents
 	 the best play for that piece, or returns null if no play is possible.
@@ -25,37 +29,32 @@ public class LameBrain implements Brain {
 		int bestX = 0;
 		int bestY = 0;
 		Piece bestPiece = null;
-		Piece current = piece;
 		
-		// loop through all the rotations
-		while (true) {
-			final int yBound = limitHeight - current.getHeight()+1;
-			final int xBound = board.getWidth() - current.getWidth()+1;
+		// every position the piece can reach from where it spawns
+		final int count = moves.generate(board, piece, limitHeight);
+		int best = -1;
+		for (int i = 0; i<count; i++) {
+			final int placement = moves.getLock(i);
+			final Piece current = piece.getRotation(PlacementGenerator.rotation(placement));
+			final int x = PlacementGenerator.x(placement);
+			final int y = PlacementGenerator.y(placement);
 			
-			// For current rotation, try all the possible columns
-			for (int x = 0; x<xBound; x++) {
-				int y = board.dropHeight(current, x);
-				if (y<yBound) {	// piece does not stick up too far
-					int result = board.place(current, x, y);
-					if (result <= Board.PLACE_ROW_FILLED) {
-						if (result == Board.PLACE_ROW_FILLED) board.clearRows();
-						
-						double score = rateBoard(board);
-						
-						if (score<bestScore) {
-							bestScore = score;
-							bestX = x;
-							bestY = y;
-							bestPiece = current;
-						}
-					}
-					
-					board.undo();	// back out that play, loop around for the next
+			int result = board.place(current, x, y);
+			if (result <= Board.PLACE_ROW_FILLED) {
+				if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+				
+				double score = evaluate(board);
+				
+				if (score<bestScore) {
+					bestScore = score;
+					bestX = x;
+					bestY = y;
+					bestPiece = current;
+					best = i;
 				}
 			}
 			
-			current = current.leftRotation();
-			if (current == piece) break;	// break if back to original rotation
+			board.undo();	// back out that play, loop around for the next
 		}
 		
 		if (bestPiece == null) return(null);	// could not find a play at all!
@@ -64,11 +63,43 @@ public class LameBrain implements Brain {
 			move.y=bestY;
 			move.piece=bestPiece;
 			move.score = bestScore;
+			// the verbs that get the piece there, worked out once per piece
+			final int length = moves.getPathLength(best);
+			if (move.verbs == null || move.verbs.length < length) move.verbs = new int[length];
+			move.verbCount = moves.getPath(best, move.verbs);
 			return(move);
 		}
 	}
 	
 	
+	/**
+	 This brain only looks at the one piece, so the preview is ignored.
+	*/
+	public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+			int limitHeight, Brain.Move move) {
+		return bestMove(board, piece, limitHeight, move);
+	}
+
+	/**
+	 Returns rateBoard(board). If the brain has a transposition table, the
+	 board is looked up by board.hash() first, so a board seen before -- on
+	 this move or an earlier one -- is rated only once; scores then come back
+	 as the table stores them, whether or not they were found there.
+	 Safe to call from several threads at once if rateBoard() is.
+	*/
+	public double evaluate(Board board) {
+		if (table == null) return rateBoard(board);
+		final long key = board.hash();
+		double score = table.get(key, 0);
+		if (Double.isNaN(score)) score = table.put(key, 0, rateBoard(board));
+		return score;
+	}
+	
+	// Sets the table evaluate() looks boards up in, or null for none
+	public void setTranspositionTable(TranspositionTable table) {
+		this.table = table;
+	}
+	
 	/*
 	 A simple brain function.
 	 Given a board, produce a number that rates
@@ -82,21 +113,11 @@ public class LameBrain implements Brain {
 		final int maxHeight = board.getMaxHeight();
 		
 		int sumHeight = 0;
-		int holes = 0;
+		// Count the holes a whole row at a time, and sum up the heights
+		final int holes = board.countHoles();
 		
-		// Count the holes, and sum up the heights
 		for (int x=0; x<width; x++) {
-			final int colHeight = board.getColumnHeight(x);
-			sumHeight += colHeight;
-			
-			int y = colHeight - 2;	// addr of first possible hole
-			
-			while (y>=0) {
-				if  (!board.getGrid(x,y)) {
-					holes++;
-				}
-				y--;
-			}
+			sumHeight += board.getColumnHeight(x);
 		}
 		
 		double avgHeight = ((double)sumHeight)/width;
@@ -0,0 +1,302 @@
+/**
+ A Brain that looks ahead through the preview pieces.
+ It plays the current piece and then each known piece after it, up to
+ depth pieces in all, on a private board with one undo level per piece,
+ and rates the board at the bottom of each line with the evaluator's
+ evaluate(). A play is as good as the best line that follows it.
+
+ To keep the search small, at each piece only the beamWidth plays that
+ rate best on their own are searched further, and once nodeBudget boards
+ have been rated no line goes any deeper -- what is left is rated where
+ it stands. The current piece is tried everywhere MoveGenerator can reach
+ (so the move comes with a plan); pieces after it are only straight drops.
+
+ Given a transposition table, lines already searched are kept in it keyed
+ by the board's hash() and the pieces still to come, so a board reached
+ again through another order of plays, or on the next move, is not searched
+ again. Boards are rated with the evaluator's evaluate(), which can have a
+ table of its own.
+
+ As an AnytimeBrain it searches one piece deep, then two, and so on,
+ and when the deadline passes it plays the move of the deepest search
+ that finished.
+
+ Every array the search needs is allocated up front or grows with the
+ board size, so a search does not allocate. Not safe to call from several
+ threads at once -- give each thread its own.
+*/
+public class LookaheadBrain implements AnytimeBrain {
+	public static final int DEFAULT_DEPTH = 3;
+	public static final int DEFAULT_BEAM_WIDTH = 6;
+	public static final int DEFAULT_NODE_BUDGET = 2000;
+
+	private static final double LOST = 1e20;	// score of a line the piece cannot be played in
+
+	private final LameBrain evaluator;
+	private final int depth;
+	private final int beamWidth;
+	private final int nodeBudget;
+
+	private Board board;	// private copy searched on, one undo level per piece
+	private final MoveGenerator moves = new MoveGenerator();
+	private final PlacementGenerator[] placements;	// [ply], for plies after the first
+	private double[][] scores;	// [ply][candidate] - rating of each candidate on its own
+	private final int[][] beam;	// [ply][k] - candidates searched further, best first
+	private final Piece[] pieces;	// [ply] - piece played at each ply
+	private final long[] sequenceKeys;	// [ply] - mixes in pieces[ply] onwards, for table keys
+	private TranspositionTable table;	// if set, searched lines are kept in it
+	private int nodes;	// boards rated so far in this search
+	private boolean timed;	// whether the search must stop at deadline
+	private long deadline;	// System.nanoTime() to stop by
+	private boolean aborted;	// set once a timed search runs out of time
+	private double rootScore;	// score of the play searchRoot() picked
+
+	// searches DEFAULT_DEPTH pieces deep
+	public LookaheadBrain(LameBrain evaluator) {
+		this(evaluator, DEFAULT_DEPTH, DEFAULT_BEAM_WIDTH, DEFAULT_NODE_BUDGET);
+	}
+
+	/**
+	 Creates a brain that rates boards with the evaluator, searching up to
+	 depth pieces ahead (the current piece counts as one), the beamWidth best
+	 plays at each, and rating at most about nodeBudget boards per move.
+	*/
+	public LookaheadBrain(LameBrain evaluator, int depth, int beamWidth, int nodeBudget) {
+		if (depth < 1 || beamWidth < 1 || nodeBudget < 1)
+			throw new IllegalArgumentException("Depth, beam width and node budget must be positive: "
+					+ depth + ", " + beamWidth + ", " + nodeBudget);
+		this.evaluator = evaluator;
+		this.depth = depth;
+		this.beamWidth = beamWidth;
+		this.nodeBudget = nodeBudget;
+		placements = new PlacementGenerator[depth];
+		for (int i = 1; i < depth; i++)
+			placements[i] = new PlacementGenerator();
+		scores = new double[depth][0];
+		beam = new int[depth][beamWidth];
+		pieces = new Piece[depth];
+		sequenceKeys = new long[depth];
+	}
+
+	// Sets the table searched lines are kept in, or null for none
+	public void setTranspositionTable(TranspositionTable table) {
+		this.table = table;
+	}
+
+	/**
+	 With no preview this is a one piece search, as LameBrain does it.
+	*/
+	public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+		return bestMove(board, piece, null, 0, limitHeight, move);
+	}
+
+	/**
+	 Given a piece, the pieces that follow it and a board, returns a move
+	 object that represents the best play for that piece, or returns null
+	 if no play is possible. See the Brain interface for details.
+	*/
+	public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+			int limitHeight, Brain.Move move) {
+		timed = false;
+		return think(board, piece, preview, previewCount, limitHeight, false, move);
+	}
+
+	/**
+	 Searches 1, 2, ... pieces deep until the full depth is done or the
+	 deadline passes, and returns the move of the deepest search finished.
+	 See the AnytimeBrain interface for details.
+	*/
+	public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+			int limitHeight, long deadlineNanos, Brain.Move move) {
+		timed = true;
+		deadline = deadlineNanos;
+		return think(board, piece, preview, previewCount, limitHeight, true, move);
+	}
+
+	// Searches the full depth, or each depth in turn if deepen is set,
+	// and fills in the move found by the deepest search that was not cut off
+	private Brain.Move think(Board board, Piece piece, Piece[] preview, int previewCount,
+			int limitHeight, boolean deepen, Brain.Move move) {
+		// Allocate a move object if necessary
+		if (move==null) move = new Brain.Move();
+
+		if (this.board == null || this.board.getWidth() != board.getWidth()
+				|| this.board.getHeight() != board.getHeight())
+			this.board = new Board(board.getWidth(), board.getHeight(), depth);
+		this.board.copyFrom(board);
+
+		final int plies = Math.min(depth, previewCount + 1);
+		pieces[0] = piece;
+		for (int i = 1; i < plies; i++)
+			pieces[i] = preview[i - 1];
+
+		final int count = moves.generate(board, piece, limitHeight);
+		int best = -1;
+		double bestScore = 0;
+		for (int p = deepen ? 1 : plies; p <= plies; p++) {
+			aborted = false;
+			final int found = searchRoot(p, count, limitHeight);
+			if (aborted)
+				break;	// keep the shallower search's move
+			best = found;
+			bestScore = rootScore;
+			if (best == -1 || (timed && expired()))
+				break;
+		}
+
+		if (best == -1) return(null);	// could not find a play at all!
+		final int placement = moves.getLock(best);
+		move.x = PlacementGenerator.x(placement);
+		move.y = PlacementGenerator.y(placement);
+		move.piece = piece.getRotation(PlacementGenerator.rotation(placement));
+		move.score = bestScore;
+		final int length = moves.getPathLength(best);
+		if (move.verbs == null || move.verbs.length < length) move.verbs = new int[length];
+		move.verbCount = moves.getPath(best, move.verbs);
+		return(move);
+	}
+
+	// Searches the count plays of the current piece plies pieces deep and
+	// returns the index of the best, or -1 if none fits, with its score in
+	// rootScore. The plays are rated on their own even past the deadline,
+	// so a one piece search always finishes.
+	private int searchRoot(int plies, int count, int limitHeight) {
+		long sequence = 0;
+		for (int i = plies - 1; i >= 0; i--) {
+			sequence = (sequence * 31 + pieces[i].getId() + 1) * 0x9E3779B97F4A7C15L;
+			sequenceKeys[i] = sequence;
+		}
+		nodes = 0;
+
+		final int kept = rateCandidates(0, count, limitHeight);
+
+		// search each kept play further, the lowest line wins,
+		// ties going to the play MoveGenerator found first
+		double bestScore = Double.MAX_VALUE;
+		int best = -1;
+		for (int k = 0; k < kept; k++) {
+			final int i = beam[0][k];
+			double score = scores[0][i];
+			if (plies > 1 && nodes < nodeBudget) {
+				play(0, candidate(0, i));
+				score = search(1, plies, limitHeight);
+				board.undo();
+				if (aborted)
+					return -1;
+			}
+			if (score < bestScore || (score == bestScore && i < best)) {
+				bestScore = score;
+				best = i;
+			}
+		}
+		rootScore = bestScore;
+		return best;
+	}
+
+	// true once the deadline of a timed search has passed
+	private boolean expired() {
+		return System.nanoTime() - deadline >= 0;
+	}
+
+	// Returns the score of the best line from the board as it stands,
+	// playing pieces[ply] and on, or LOST if pieces[ply] cannot be played.
+	private double search(int ply, int plies, int limitHeight) {
+		final long key = board.hash() ^ sequenceKeys[ply];
+		final double cached = (table == null) ? Double.NaN : table.get(key, plies - ply);
+		if (!Double.isNaN(cached))
+			return cached;
+	
+		final int count = placements[ply].generate(board, pieces[ply], limitHeight);
+		final int kept = rateCandidates(ply, count, limitHeight);
+		if (aborted)
+			return LOST;	// the caller throws the whole search away
+		if (kept == 0)
+			return remember(key, plies - ply, LOST);
+		// too deep or out of budget: the best play on its own is the answer
+		if (ply + 1 == plies)
+			return remember(key, plies - ply, scores[ply][beam[ply][0]]);
+		if (nodes >= nodeBudget)
+			return scores[ply][beam[ply][0]];
+
+		double bestScore = LOST;
+		for (int k = 0; k < kept; k++) {
+			play(ply, candidate(ply, beam[ply][k]));
+			double score = nodes < nodeBudget
+					? search(ply + 1, plies, limitHeight)
+					: scores[ply][beam[ply][k]];
+			board.undo();
+			if (aborted)
+				return LOST;	// the caller throws the whole search away
+			if (score < bestScore)
+				bestScore = score;
+		}
+		// a line cut short by the budget is not worth keeping
+		if (nodes >= nodeBudget)
+			return bestScore;
+		return remember(key, plies - ply, bestScore);
+	}
+
+	// Keeps the line's score in the table, if there is one, and returns
+	// the score as the table hands it back
+	private double remember(long key, int depth, double score) {
+		return (table == null) ? score : table.put(key, depth, score);
+	}
+
+	// Rates each of the ply's count candidates on its own, and fills beam[ply]
+	// with the best beamWidth of them in order. Returns how many it kept.
+	// Past the deadline of a timed search it stops and sets aborted,
+	// except at ply 0, which always finishes.
+	private int rateCandidates(int ply, int count, int limitHeight) {
+		if (scores[ply].length < count)
+			scores[ply] = new double[count];
+		int kept = 0;
+		for (int i = 0; i < count; i++) {
+			if (ply > 0 && timed && expired()) {
+				aborted = true;
+				return 0;
+			}
+			int result = play(ply, candidate(ply, i));
+			if (result <= Board.PLACE_ROW_FILLED) {
+				scores[ply][i] = evaluator.evaluate(board);
+				nodes++;
+				kept = keep(ply, i, kept);
+			}
+			board.undo();
+		}
+		return kept;
+	}
+
+	// Inserts candidate i into beam[ply], which holds kept candidates sorted
+	// by score, dropping the worst if it is full. Returns the new size.
+	private int keep(int ply, int i, int kept) {
+		final int[] best = beam[ply];
+		final double score = scores[ply][i];
+		if (kept == beamWidth) {
+			if (score >= scores[ply][best[kept - 1]])
+				return kept;
+			kept--;
+		}
+		int k = kept;
+		while (k > 0 && score < scores[ply][best[k - 1]]) {
+			best[k] = best[k - 1];
+			k--;
+		}
+		best[k] = i;
+		return kept + 1;
+	}
+
+	// Returns the packed placement of the ply's i-th candidate
+	private int candidate(int ply, int i) {
+		return (ply == 0) ? moves.getLock(i) : placements[ply].getPlacement(i);
+	}
+
+	// Plays pieces[ply] at the packed placement, clearing any rows it fills,
+	// and returns what place() said. Either way board.undo() takes it back.
+	private int play(int ply, int placement) {
+		final Piece current = pieces[ply].getRotation(PlacementGenerator.rotation(placement));
+		int result = board.place(current, PlacementGenerator.x(placement), PlacementGenerator.y(placement));
+		if (result == Board.PLACE_ROW_FILLED)
+			board.clearRows();
+		return result;
+	}
+}
@@ -0,0 +1,439 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ A Brain that runs a Monte Carlo tree search through the preview pieces.
+ The pieces in the preview are known, so the tree covers them: its root
+ is the board as it stands, and each node's children are the plays of the
+ next known piece -- every play MoveGenerator can reach for the current
+ piece, and for a preview piece the WIDTH straight drops the evaluator
+ rates best on their own, best first. Each iteration walks down the tree
+ by UCB1, so the promising lines are played out more, and a leaf that has
+ been visited before is expanded by one level, until the tree is as deep
+ as the preview (or horizon pieces deep).
+
+ Past the preview the queue deals pieces at random (see TetrisQueue.add()),
+ so below the tree each iteration plays a rollout against a sampled
+ future: the rest of the preview and then pieces drawn the way the queue
+ draws them, horizon pieces from the root in all, each one where the
+ evaluator rates best on its own (straight drops). The board it ends on is
+ rated, or the line scores LOST if a piece could not be played, and that
+ score is added to every node on the way back up. The move is the play
+ of the current piece with the lowest average.
+
+ Iterations keep going until the time budget for the move runs out -- or,
+ as an AnytimeBrain, until the caller's deadline. Every worker thread
+ grows a tree of its own with its own board and random numbers (root
+ parallelism); the root plays' counts are added up once the time is up.
+ The evaluator's rateBoard() must be safe to call from several threads
+ at once -- LameBrain's and BetterBrain's are.
+*/
+public class MonteCarloBrain implements AnytimeBrain {
+	public static final int DEFAULT_HORIZON = 6;
+	public static final long DEFAULT_BUDGET_NANOS = 20 * 1000000L;	// 20 ms
+
+	private static final double LOST = 1e6;	// score of a rollout that topped out
+	private static final double EXPLORATION = 0.5;	// weight of the UCB1 exploration term
+	private static final int WIDTH = 4;	// plays of a preview piece kept in the tree
+
+	private final LameBrain evaluator;
+	private final Piece[] pieces;	// what the queue draws unknown pieces from
+	private final int horizon;
+	private final long budgetNanos;
+	private final ExecutorService pool;
+	private final Worker[] workers;
+	private final MoveGenerator moves = new MoveGenerator();
+
+	// set up by bestMove() for the workers to read
+	private BoardSnapshot start;
+	private int[] candidates = new int[0];
+	private int candidateCount;
+	private Piece piece;
+	private Piece[] preview = new Piece[0];
+	private int previewCount;
+	private int limitHeight;
+	private long deadline;
+
+	// plays the standard pieces with the default horizon and budget,
+	// on one worker per processor
+	public MonteCarloBrain(LameBrain evaluator) {
+		this(evaluator, Piece.getPieces(), DEFAULT_HORIZON, DEFAULT_BUDGET_NANOS,
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 Creates a brain that plays rollouts horizon pieces long, drawing pieces
+	 past the preview from the given set, for budgetNanos per move on the
+	 given number of worker threads.
+	*/
+	public MonteCarloBrain(LameBrain evaluator, Piece[] pieces, int horizon, long budgetNanos,
+			int threads) {
+		if (horizon < 1 || budgetNanos < 0 || threads < 1)
+			throw new IllegalArgumentException("Bad horizon, budget or thread count: "
+					+ horizon + ", " + budgetNanos + ", " + threads);
+		this.evaluator = evaluator;
+		this.pieces = pieces;
+		this.horizon = horizon;
+		this.budgetNanos = budgetNanos;
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "rollouts");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		workers = new Worker[threads];
+		Random seeds = new Random();
+		for (int i = 0; i < threads; i++)
+			workers[i] = new Worker(i, seeds.nextLong());
+	}
+
+	/**
+	 With no preview every piece after this one is drawn at random.
+	*/
+	public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+		return bestMove(board, piece, null, 0, limitHeight, move);
+	}
+
+	/**
+	 Given a piece, the pieces that follow it and a board, returns a move
+	 object that represents the best play for that piece, or returns null
+	 if no play is possible. Takes about the brain's time budget.
+	 See the Brain interface for details. Not itself safe to call from
+	 several threads at once.
+	*/
+	public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+			int limitHeight, Brain.Move move) {
+		return bestMove(board, piece, preview, previewCount, limitHeight,
+				System.nanoTime() + budgetNanos, move);
+	}
+
+	/**
+	 As above, but plays rollouts until deadlineNanos rather than for the
+	 brain's own time budget. See the AnytimeBrain interface for details.
+	*/
+	public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+			int limitHeight, long deadlineNanos, Brain.Move move) {
+		// Allocate a move object if necessary
+		if (move==null) move = new Brain.Move();
+
+		candidateCount = moves.generate(board, piece, limitHeight);
+		if (candidateCount == 0) return(null);	// could not find a play at all!
+		if (candidates.length < candidateCount)
+			candidates = new int[candidateCount];
+		for (int i = 0; i < candidateCount; i++)
+			candidates[i] = moves.getLock(i);
+		if (this.preview.length < previewCount)
+			this.preview = new Piece[previewCount];
+		for (int i = 0; i < previewCount; i++)
+			this.preview[i] = preview[i];
+		this.previewCount = previewCount;
+		this.piece = piece;
+		this.limitHeight = limitHeight;
+		start = board.snapshot();
+		deadline = deadlineNanos;
+
+		try {
+			pool.invokeAll(Arrays.asList(workers));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		start = null;
+
+		// add up every worker's iterations for the root's children,
+		// ties going to the lowest index
+		double bestScore = Double.MAX_VALUE;
+		int best = -1;
+		boolean searched = true;
+		for (int i = 0; i < candidateCount && searched; i++) {
+			int visits = 0;
+			double total = 0;
+			for (Worker worker : workers) {
+				visits += worker.visits[1 + i];
+				total += worker.totals[1 + i];
+			}
+			searched = visits > 0;
+			if (searched && total / visits < bestScore) {
+				bestScore = total / visits;
+				best = i;
+			}
+		}
+
+		// if the time ran out before every play was searched, go by the
+		// first worker's ratings of each play on its own -- averages of
+		// the plays that happened to come first are no better than that
+		if (!searched) {
+			bestScore = Double.MAX_VALUE;
+			best = -1;
+			for (int i = 0; i < candidateCount; i++) {
+				final double rating = workers[0].ratings[i];
+				if (rating < bestScore) {
+					bestScore = rating;
+					best = i;
+				}
+			}
+		}
+
+		if (best == -1) return(null);	// interrupted before any rollout
+		final int placement = candidates[best];
+		move.x = PlacementGenerator.x(placement);
+		move.y = PlacementGenerator.y(placement);
+		move.piece = piece.getRotation(PlacementGenerator.rotation(placement));
+		move.score = bestScore;
+		final int length = moves.getPathLength(best);
+		if (move.verbs == null || move.verbs.length < length) move.verbs = new int[length];
+		move.verbCount = moves.getPath(best, move.verbs);
+		return(move);
+	}
+
+	// Returns the piece played at the given depth: the current piece at 0,
+	// then the preview -- depth must be at most previewCount
+	private Piece pieceAt(int depth) {
+		return (depth == 0) ? piece : preview[depth - 1];
+	}
+
+	// One thread's share of the iterations, with its own tree. Nodes live in
+	// arrays indexed by node, growing as the tree does: node 0 is the root,
+	// nodes 1 to candidateCount its children in candidate order, and every
+	// expanded node's children are next to each other.
+	private class Worker implements Callable<Void> {
+		private final int index;
+		private final Random random;
+		private final PlacementGenerator placements = new PlacementGenerator();
+		private Board board;	// one undo level per piece of an iteration
+		private int nodeCount;
+		private int[] plays = new int[0];	// packed placement that made the node
+		private int[] children = new int[0];	// first child, -1 until expanded
+		private int[] childCounts = new int[0];	// plays of the next piece that fit
+		private int[] visits = new int[0];	// iterations through the node
+		private double[] totals = new double[0];	// sum of their scores
+		private final int[] path = new int[horizon + 1];	// nodes walked this iteration
+		private final double[] keptScores = new double[WIDTH];	// ratings of the children expand() keeps
+		private double[] ratings = new double[0];	// [candidate] - rated on its own if cut off
+		private double low;	// lowest and highest scores seen this move,
+		private double high;	// to scale averages for UCB1
+
+		Worker(int index, long seed) {
+			this.index = index;
+			this.random = new Random(seed);
+		}
+
+		public Void call() {
+			if (board == null || board.getWidth() != start.getWidth()
+					|| board.getHeight() != start.getHeight())
+				board = new Board(start.getWidth(), start.getHeight(), horizon);
+			board.restore(start);
+			nodeCount = 1;
+			ensureNodes(1 + candidateCount);
+			for (int i = 0; i < candidateCount; i++)
+				plays[1 + i] = candidates[i];
+			visits[0] = 0;
+			totals[0] = 0;
+			addChildren(0, candidateCount);
+			low = Double.MAX_VALUE;
+			high = -Double.MAX_VALUE;
+
+			while (System.nanoTime() - deadline < 0)
+				iterate();
+
+			// if the time ran out before it searched every play, the first
+			// worker rates them all on its own -- the one piece pass, so
+			// there is a move even when the time was up from the start.
+			// The ratings are kept apart from the tree, so a play rated
+			// on its own is not averaged with searched ones.
+			if (index == 0 && !searchedAll()) {
+				if (ratings.length < candidateCount)
+					ratings = new double[candidateCount];
+				for (int i = 0; i < candidateCount; i++)
+					ratings[i] = rate(1 + i);
+			}
+			return null;
+		}
+
+		// true if every play of the current piece has been searched
+		private boolean searchedAll() {
+			for (int i = 0; i < candidateCount; i++) {
+				if (visits[1 + i] == 0)
+					return false;
+			}
+			return true;
+		}
+
+		// Walks down the tree by UCB1, expands the leaf it ends on if it has
+		// been visited before, plays a rollout from there, adds the score
+		// to every node on the path, and takes it all back
+		private void iterate() {
+			int node = 0;
+			int depth = 0;
+			path[0] = 0;
+			boolean lost = false;
+			while (!lost && children[node] != -1) {
+				if (childCounts[node] == 0) {
+					lost = true;	// the known piece has no play here
+					break;
+				}
+				node = select(node);
+				lost = play(pieceAt(depth), plays[node]) > Board.PLACE_ROW_FILLED;
+				path[++depth] = node;
+			}
+			if (!lost && visits[node] > 0 && depth <= previewCount && depth < horizon) {
+				expand(node, pieceAt(depth));
+				if (childCounts[node] == 0) {
+					lost = true;
+				} else {
+					node = children[node];
+					play(pieceAt(depth), plays[node]);
+					path[++depth] = node;
+				}
+			}
+			double score = lost ? LOST : rollout(depth);
+			for (int k = 0; k < depth; k++)
+				board.undo();
+			for (int k = 0; k <= depth; k++) {
+				visits[path[k]]++;
+				totals[path[k]] += score;
+			}
+			low = Math.min(low, score);
+			high = Math.max(high, score);
+		}
+
+		// Picks the child of node to walk down: the first not yet visited,
+		// then the lowest UCB1 bound on the scaled average
+		private int select(int node) {
+			final int first = children[node];
+			final int last = first + childCounts[node];
+			for (int child = first; child < last; child++) {
+				if (visits[child] == 0)
+					return child;
+			}
+			final double range = (high > low) ? high - low : 1;
+			final double log = Math.log(visits[node]);
+			int best = first;
+			double bestBound = Double.MAX_VALUE;
+			for (int child = first; child < last; child++) {
+				double average = (totals[child] / visits[child] - low) / range;
+				double bound = average - EXPLORATION * Math.sqrt(log / visits[child]);
+				if (bound < bestBound) {
+					bestBound = bound;
+					best = child;
+				}
+			}
+			return best;
+		}
+
+		// Gives node a child for each of the WIDTH straight drops of next
+		// the evaluator rates best on their own, best first -- so the first
+		// visit below node plays next where a rollout would
+		private void expand(int node, Piece next) {
+			final int count = placements.generate(board, next, limitHeight);
+			ensureNodes(nodeCount + WIDTH);
+			int kept = 0;
+			for (int i = 0; i < count; i++) {
+				final int placement = placements.getPlacement(i);
+				if (play(next, placement) <= Board.PLACE_ROW_FILLED) {
+					final double score = evaluator.evaluate(board);
+					if (kept < WIDTH || score < keptScores[kept - 1]) {
+						int k = (kept < WIDTH) ? kept++ : kept - 1;
+						while (k > 0 && score < keptScores[k - 1]) {
+							keptScores[k] = keptScores[k - 1];
+							plays[nodeCount + k] = plays[nodeCount + k - 1];
+							k--;
+						}
+						keptScores[k] = score;
+						plays[nodeCount + k] = placement;
+					}
+				}
+				board.undo();
+			}
+			addChildren(node, kept);
+		}
+
+		// Makes the count nodes from nodeCount on, whose plays are already
+		// filled in, the children of node
+		private void addChildren(int node, int count) {
+			children[node] = nodeCount;
+			childCounts[node] = count;
+			for (int i = 0; i < count; i++) {
+				final int child = nodeCount++;
+				children[child] = -1;
+				childCounts[child] = 0;
+				visits[child] = 0;
+				totals[child] = 0;
+			}
+		}
+
+		// grows the node arrays to hold at least size nodes
+		private void ensureNodes(int size) {
+			if (plays.length >= size)
+				return;
+			final int capacity = Math.max(size, plays.length * 2);
+			plays = Arrays.copyOf(plays, capacity);
+			children = Arrays.copyOf(children, capacity);
+			childCounts = Arrays.copyOf(childCounts, capacity);
+			visits = Arrays.copyOf(visits, capacity);
+			totals = Arrays.copyOf(totals, capacity);
+		}
+
+		// Rates the play that made root child node on its own
+		private double rate(int node) {
+			boolean lost = play(piece, plays[node]) > Board.PLACE_ROW_FILLED;
+			double score = lost ? LOST : evaluator.evaluate(board);
+			board.undo();
+			return score;
+		}
+
+		// Plays a sampled future greedily from the board as it stands, depth
+		// pieces in, up to horizon pieces in all, takes it back, and returns
+		// the score it ended on
+		private double rollout(int depth) {
+			int played = 0;
+			boolean lost = false;
+			for (; depth < horizon; depth++) {
+				Piece next = (depth - 1 < previewCount)
+						? pieceAt(depth)
+						: pieces[random.nextInt(pieces.length)];
+				int placement = greedy(next);
+				if (placement == -1) {
+					lost = true;
+					break;
+				}
+				play(next, placement);
+				played++;
+			}
+			double score = lost ? LOST : evaluator.evaluate(board);
+			for (int k = 0; k < played; k++)
+				board.undo();
+			return score;
+		}
+
+		// Returns the straight drop of the piece the evaluator rates best
+		// on its own, or -1 if it cannot be played
+		private int greedy(Piece next) {
+			final int count = placements.generate(board, next, limitHeight);
+			int best = -1;
+			double bestScore = Double.MAX_VALUE;
+			for (int i = 0; i < count; i++) {
+				final int placement = placements.getPlacement(i);
+				if (play(next, placement) <= Board.PLACE_ROW_FILLED) {
+					double score = evaluator.evaluate(board);
+					if (score < bestScore) {
+						bestScore = score;
+						best = placement;
+					}
+				}
+				board.undo();
+			}
+			return best;
+		}
+
+		// Plays the piece at the packed placement, clearing any rows it
+		// fills, and returns what place() said. board.undo() takes it back.
+		private int play(Piece current, int placement) {
+			final Piece rotated = current.getRotation(PlacementGenerator.rotation(placement));
+			int result = board.place(rotated, PlacementGenerator.x(placement), PlacementGenerator.y(placement));
+			if (result == Board.PLACE_ROW_FILLED)
+				board.clearRows();
+			return result;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+import java.util.*;
+
+/**
+ Finds every position a piece can actually reach and lock at from
+ where it starts, by a breadth-first search over (rotation, x, y) states
+ using the moves JTetris.computeNewPosition() allows -- LEFT, RIGHT,
+ ROTATE_RIGHT, ROTATE_LEFT and DOWN. Unlike straight drops this finds
+ tucks and slides under overhangs, and never returns a position that
+ is blocked off from the start.
+
+ Each lock position comes with the shortest sequence of verbs that
+ reaches it, ending in DROP. Gravity is ignored, so the sequence
+ assumes the moves are made before the piece ticks down.
+
+ The board should be in the committed state, without the piece in it.
+ All search state lives in arrays owned by the generator and reused
+ by the next generate(), so searching does not allocate once they
+ have grown to the board size.
+*/
+public final class MoveGenerator {
+   // moves tried from each state, in this order
+   private static final int[] VERBS = {
+      JTetris.LEFT, JTetris.RIGHT, JTetris.ROTATE_RIGHT, JTetris.ROTATE_LEFT, JTetris.DOWN
+   };
+
+   private int width;
+   private int height;
+
+   // one entry per state, index = (rotation * height + y) * width + x
+   private long[] visited;    // bit set of states already queued
+   private int[] parent;      // state each state was first reached from, -1 for the start
+   private byte[] verb;       // verb that first reached each state
+   private int[] queue;
+
+   // lock positions found, in the order they were first reached
+   private long[] locked;     // bit set of states already recorded as lock positions
+   private int[] locks;       // packed (rotation, x, y), see PlacementGenerator.pack()
+   private int[] lockFrom;    // state whose DROP reaches each lock position
+   private int lockCount;
+
+   public MoveGenerator() {
+      visited = new long[0];
+      locked = new long[0];
+      parent = new int[0];
+      verb = new byte[0];
+      queue = new int[0];
+      locks = new int[0];
+      lockFrom = new int[0];
+   }
+
+   /**
+    Searches from where JTetris.addNewPiece() puts a new piece -- centered
+    at the top of the board. Returns the number of lock positions found.
+   */
+   public int generate(Board board, Piece piece, int limitHeight) {
+      int x = (board.getWidth() - piece.getWidth()) / 2;
+      int y = board.getHeight() - piece.getHeight();
+      return generate(board, piece, x, y, limitHeight);
+   }
+
+   /**
+    Searches from the piece at (x, y). Lock positions that would stick
+    up past limitHeight are left out. Returns the number of lock positions
+    found, or 0 if the piece does not fit where it starts.
+   */
+   public int generate(Board board, Piece piece, int x, int y, int limitHeight) {
+      width = board.getWidth();
+      height = board.getHeight();
+      ensureCapacity(piece.getRotationCount() * width * height);
+      lockCount = 0;
+      if (!board.canPlace(piece, x, y))
+         return 0;
+   
+      int head = 0;
+      int tail = 0;
+      int start = index(piece.getRotationIndex(), x, y);
+      mark(visited, start);
+      parent[start] = -1;
+      queue[tail++] = start;
+      while (head < tail) {
+         int state = queue[head++];
+         int rotation = state / (width * height);
+         int stateY = (state / width) % height;
+         int stateX = state % width;
+         Piece current = piece.getRotation(rotation);
+      
+         // dropping from here is the shortest way yet to wherever it lands,
+         // since states come off the queue in order of distance
+         int landY = board.ghostHeight(current, stateX, stateY);
+         int land = index(rotation, stateX, landY);
+         if (!isMarked(locked, land) && landY + current.getHeight() <= limitHeight) {
+            mark(locked, land);
+            locks[lockCount] = PlacementGenerator.pack(rotation, stateX, landY);
+            lockFrom[lockCount] = state;
+            lockCount++;
+         }
+      
+         for (int i = 0; i < VERBS.length; i++) {
+            Piece next = current;
+            int nextX = stateX;
+            int nextY = stateY;
+            switch (VERBS[i]) {
+               case JTetris.LEFT:
+               nextX--;
+               break;
+            
+               case JTetris.RIGHT:
+               nextX++;
+               break;
+            
+               case JTetris.ROTATE_RIGHT:
+               case JTetris.ROTATE_LEFT:
+               // same centering as JTetris.computeNewPosition()
+               next = (VERBS[i] == JTetris.ROTATE_RIGHT) ? current.rightRotation() : current.leftRotation();
+               nextX = stateX + (current.getWidth() - next.getWidth()) / 2;
+               nextY = stateY + (current.getHeight() - next.getHeight()) / 2;
+               break;
+            
+               case JTetris.DOWN:
+               nextY--;
+               break;
+            }
+            if (!board.canPlace(next, nextX, nextY))
+               continue;
+            int nextState = index(next.getRotationIndex(), nextX, nextY);
+            if (isMarked(visited, nextState))
+               continue;
+            mark(visited, nextState);
+            parent[nextState] = state;
+            verb[nextState] = (byte) VERBS[i];
+            queue[tail++] = nextState;
+         }
+      }
+      return lockCount;
+   }
+
+   // Returns the number of lock positions found by the last generate()
+   public int getCount() {
+      return lockCount;
+   }
+
+   // Returns the i-th lock position as a packed (rotation, x, y),
+   // see PlacementGenerator for unpacking it
+   public int getLock(int i) {
+      return locks[i];
+   }
+
+   // Returns the number of verbs in the path to the i-th lock position
+   public int getPathLength(int i) {
+      int length = 1;   // the final DROP
+      for (int state = lockFrom[i]; parent[state] != -1; state = parent[state])
+         length++;
+      return length;
+   }
+
+   /**
+    Copies the shortest path to the i-th lock position into out as
+    JTetris verbs, ending with DROP, and returns its length.
+    out must hold at least getPathLength(i) verbs.
+   */
+   public int getPath(int i, int[] out) {
+      int length = getPathLength(i);
+      out[length - 1] = JTetris.DROP;
+      int pos = length - 2;
+      for (int state = lockFrom[i]; parent[state] != -1; state = parent[state])
+         out[pos--] = verb[state];
+      return length;
+   }
+
+   private int index(int rotation, int x, int y) {
+      return (rotation * height + y) * width + x;
+   }
+
+   // grows the per-state arrays to hold the given number of states,
+   // and clears the bit sets for a new search
+   private void ensureCapacity(int states) {
+      int words = (states + 63) >>> 6;
+      if (visited.length < words) {
+         visited = new long[words];
+         locked = new long[words];
+      } else {
+         Arrays.fill(visited, 0, words, 0L);
+         Arrays.fill(locked, 0, words, 0L);
+      }
+      if (parent.length < states) {
+         parent = new int[states];
+         verb = new byte[states];
+         queue = new int[states];
+         locks = new int[states];
+         lockFrom = new int[states];
+      }
+   }
+
+   private static void mark(long[] bits, int index) {
+      bits[index >>> 6] |= 1L << index;
+   }
+
+   private static boolean isMarked(long[] bits, int index) {
+      return (bits[index >>> 6] & (1L << index)) != 0;
+   }
+}
@@ -0,0 +1,212 @@
+import java.util.concurrent.*;
+
+/**
+ A Brain that searches the candidate plays in parallel on a ForkJoinPool.
+ It finds the same positions LameBrain does (see MoveGenerator) and
+ each worker thread plays candidates and searches what follows them.
+
+ Given only an evaluator, each resulting board is rated with the
+ evaluator's evaluate(), so it plays exactly the moves the evaluator
+ would on its own -- just sooner, when rateBoard() is expensive.
+
+ Given a Factory as well, each worker gets a brain of its own from it,
+ e.g. a LookaheadBrain, BeamBrain or MonteCarloBrain, and a candidate is
+ as good as the move that brain finds for the next piece, given the rest
+ of the preview -- so the search below each candidate runs on the pool.
+ The brain's depth does not count the current piece: a LookaheadBrain
+ of depth 2 under this one looks three pieces ahead in all. With no
+ preview the evaluator rates the board; a candidate that leaves no play
+ for the next piece scores LOST.
+
+ Every worker copies the passed in board onto a board of its own with
+ copyFrom(), so the passed in board is only read. The evaluator's
+ rateBoard() must be safe to call from several threads at once --
+ LameBrain's and BetterBrain's are, and so is a TranspositionTable the
+ evaluator may have. The factory's brains are each used by one thread.
+
+ The best play is the lowest score, ties going to the candidate found
+ first, so the result does not depend on how the work was split up.
+*/
+public class ParallelBrain implements Brain {
+	// candidates rated by one task without splitting further
+	private static final int THRESHOLD = 4;
+
+	private static final double LOST = 1e20;	// score of a play the next piece cannot follow
+
+	/**
+	 Makes the brains the workers search below each candidate with,
+	 one per worker thread.
+	*/
+	public interface Factory {
+		public Brain newBrain();
+	}
+
+	private final LameBrain evaluator;
+	private final Factory factory;	// null to only rate each candidate
+	private final ForkJoinPool pool;
+	private final MoveGenerator moves = new MoveGenerator();
+
+	// each worker's own board, brain and preview
+	private final ThreadLocal<Worker> workers = new ThreadLocal<Worker>();
+
+	// set up by bestMove() for the tasks to read
+	private Board start;
+	private Piece piece;
+	private Piece[] preview;
+	private int previewCount;
+	private int limitHeight;
+	private int[] candidates = new int[0];
+	private double[] scores = new double[0];
+
+	// uses one worker per processor
+	public ParallelBrain(LameBrain evaluator) {
+		this(evaluator, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelBrain(LameBrain evaluator, int parallelism) {
+		this(evaluator, null, parallelism);
+	}
+
+	/**
+	 Creates a brain that searches below each candidate with a brain from
+	 the factory, or only rates it with the evaluator if the factory is
+	 null, on the given number of worker threads.
+	*/
+	public ParallelBrain(LameBrain evaluator, Factory factory, int parallelism) {
+		this.evaluator = evaluator;
+		this.factory = factory;
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 Given a piece and a board, returns a move object that represents
+	 the best play for that piece, or returns null if no play is possible.
+	 With no preview every candidate is only rated.
+	*/
+	public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+		return bestMove(board, piece, null, 0, limitHeight, move);
+	}
+
+	/**
+	 Given a piece, the pieces that follow it and a board, returns a move
+	 object that represents the best play for that piece, or returns null
+	 if no play is possible. See the Brain interface for details.
+	 Not itself safe to call from several threads at once.
+	*/
+	public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int previewCount,
+			int limitHeight, Brain.Move move) {
+		// Allocate a move object if necessary
+		if (move==null) move = new Brain.Move();
+
+		final int count = moves.generate(board, piece, limitHeight);
+		if (candidates.length < count) {
+			candidates = new int[count];
+			scores = new double[count];
+		}
+		for (int i = 0; i<count; i++) {
+			candidates[i] = moves.getLock(i);
+		}
+		start = board;
+		this.piece = piece;
+		this.preview = preview;
+		this.previewCount = (factory == null) ? 0 : previewCount;
+		this.limitHeight = limitHeight;
+		pool.invoke(new RateTask(0, count));
+		start = null;
+		this.preview = null;
+
+		// strictly lower only, so ties go to the lowest index
+		double bestScore = Double.MAX_VALUE;
+		int best = -1;
+		for (int i = 0; i<count; i++) {
+			if (scores[i] < bestScore) {
+				bestScore = scores[i];
+				best = i;
+			}
+		}
+
+		if (best == -1) return(null);	// could not find a play at all!
+		final int placement = candidates[best];
+		move.x = PlacementGenerator.x(placement);
+		move.y = PlacementGenerator.y(placement);
+		move.piece = piece.getRotation(PlacementGenerator.rotation(placement));
+		move.score = bestScore;
+		final int length = moves.getPathLength(best);
+		if (move.verbs == null || move.verbs.length < length) move.verbs = new int[length];
+		move.verbCount = moves.getPath(best, move.verbs);
+		return(move);
+	}
+
+	// Rates candidates [from, to), splitting in halves until they are small
+	private class RateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+
+		RateTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from <= THRESHOLD) {
+				rate(from, to);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new RateTask(from, middle), new RateTask(middle, to));
+			}
+		}
+	}
+
+	// One worker thread's board to play candidates on, and its brain
+	private class Worker {
+		private final Board board;
+		private final Brain brain;	// null without a factory
+		private final Brain.Move move = new Brain.Move();
+		private Piece[] rest = new Piece[0];	// the preview after its first piece
+
+		Worker(int width, int height) {
+			board = new Board(width, height);
+			brain = (factory == null) ? null : factory.newBrain();
+		}
+	}
+
+	// Plays each candidate in [from, to) on a copy of the board on this
+	// thread, and scores it by the worker's search of the next piece or
+	// the evaluator's rating. Plays that do not fit score Double.MAX_VALUE,
+	// i.e. never best.
+	private void rate(int from, int to) {
+		Worker worker = workers.get();
+		if (worker == null || worker.board.getWidth() != start.getWidth()
+				|| worker.board.getHeight() != start.getHeight()) {
+			worker = new Worker(start.getWidth(), start.getHeight());
+			workers.set(worker);
+		}
+		final Board board = worker.board;
+		if (worker.rest.length < previewCount)
+			worker.rest = new Piece[previewCount];
+		for (int i = 1; i < previewCount; i++)
+			worker.rest[i - 1] = preview[i];
+
+		for (int i = from; i<to; i++) {
+			board.copyFrom(start);
+			final int placement = candidates[i];
+			final Piece current = piece.getRotation(PlacementGenerator.rotation(placement));
+			int result = board.place(current, PlacementGenerator.x(placement), PlacementGenerator.y(placement));
+			if (result > Board.PLACE_ROW_FILLED) {
+				scores[i] = Double.MAX_VALUE;
+				continue;
+			}
+			if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+			board.commit();	// brains are handed committed boards
+			if (previewCount == 0) {
+				scores[i] = evaluator.evaluate(board);
+			} else {
+				Brain.Move reply = worker.brain.bestMove(board, preview[0], worker.rest,
+						previewCount - 1, limitHeight, worker.move);
+				scores[i] = (reply == null) ? LOST : reply.score;
+			}
+		}
+	}
+}
@@ -1,4 +1,4 @@
-import java.awt.*;
+import java.io.*;
 import java.util.*;
 /**
  An immutable representation of a tetris piece in a particular rotation.
@@ -9,53 +9,73 @@ import java.util.*;
        chosen in JTetris
 */
 public final class Piece {
-   private Point[] body;
+   private int[] bodyX;  // x offset of each block in the body
+   private int[] bodyY;  // y offset of each block in the body
+   private int[] rowMasks; // [y] - bit x is set when (x, y) is in the body
    private int[] skirt; // lowest y coordinate of each x position - zero based
    private int width;
    private int height;
    private Piece next;	// counter clockwise rotation
    private Piece prev;  // clockwise rotation
 
-   private Set<Point> pts; //same contents as body. used for fast equals method
-   private Color color;    // color of this piece
+   private int type;       // index of this piece in getPieces(), shared by its rotations
+   private int rotation;   // index of this rotation in its ring, 0 for the first rotation
+   private Piece[] ring;   // every rotation of this piece, by rotation index
 
-   private static Piece[] pieces;   // singleton array of first rotations
+   // upper bound on the rotations of any piece -- spaces out getId() values
+   public static final int MAX_ROTATIONS = 4;
+
+   // x, y pairs of the first rotation of each of the 7 standard pieces
+   private static final int[][] STANDARD_PIECES = {
+      {0, 0,  0, 1,  0, 2,  0, 3},   // 0  I
+      {0, 0,  0, 1,  0, 2,  1, 0},   // 1  L
+      {0, 0,  1, 0,  1, 1,  1, 2},   // 2  J
+      {0, 0,  1, 0,  1, 1,  2, 1},   // 3  S
+      {0, 1,  1, 1,  1, 0,  2, 0},   // 4  Z
+      {0, 0,  0, 1,  1, 0,  1, 1},   // 5  O
+      {0, 0,  1, 0,  1, 1,  2, 0}    // 6  T
+   };
+
+   // singleton array of first rotations, built once when the class loads
+   private static final Piece[] pieces = makePieces(STANDARD_PIECES);
 
 	/*
-	 Defines a new piece given the Points that make up its body.
-	 Makes its own copy of the array and the Point inside it.
-	 Does not set up the rotations.
+	 Defines a new piece given the x and y offsets of the blocks
+	 that make up its body. Does not set up the rotations.
 
 	 This constructor is PRIVATE -- if a client
 	 wants a piece object, they must use Piece.getPieces().
 	*/
-   private Piece(Point[] points, Color color) {
-      body = points;
-      this.color = color;
-      pts = new HashSet<Point>();
+   private Piece(int[] bodyX, int[] bodyY, int type) {
+      this.bodyX = bodyX;
+      this.bodyY = bodyY;
+      this.type = type;
       // width and heigth default value = 0
-      for (int i = 0; i < body.length; i++) {
-         width = Math.max(width, body[i].x);
-         height = Math.max(height, body[i].y);
-         pts.add(body[i]);
+      for (int i = 0; i < bodyX.length; i++) {
+         width = Math.max(width, bodyX[i]);
+         height = Math.max(height, bodyY[i]);
       }
       // plus 1 because they specify length, not index
       width++;
       height++;
 
+      rowMasks = new int[height];
+      for (int i = 0; i < bodyX.length; i++)
+         rowMasks[bodyY[i]] |= 1 << bodyX[i];
+
       skirt = new int[width];
       for (int i = 0; i < width; i++)
          skirt[i] = height;
-      for (Point pt : body)
-         if (pt.y < skirt[pt.x])
-            skirt[pt.x] = pt.y;
+      for (int i = 0; i < bodyX.length; i++)
+         if (bodyY[i] < skirt[bodyX[i]])
+            skirt[bodyX[i]] = bodyY[i];
    }
 
    // prints out points contained in this piece's body
    // NOTE : use print() to see block info
 	private void printBody() {
-		for (Point pt : body) {
-			System.out.print("(" + pt.x + ", " + pt.y + ")");
+		for (int i = 0; i < bodyX.length; i++) {
+			System.out.print("(" + bodyX[i] + ", " + bodyY[i] + ")");
 		}
 		System.out.println();
 	}
@@ -83,10 +103,30 @@ public final class Piece {
       return height;
    }
 
-   // Returns a pointer to the piece's body. The caller
-   // should not modify this array.
-   public Point[] getBody() {
-      return body;
+   // Returns the number of blocks in the piece's body
+   public int getBodySize() {
+      return bodyX.length;
+   }
+
+   // Returns the x offset of the i-th block of the body
+   public int getBodyX(int i) {
+      return bodyX[i];
+   }
+
+   // Returns the y offset of the i-th block of the body
+   public int getBodyY(int i) {
+      return bodyY[i];
+   }
+
+    /*
+     Returns a pointer to the piece's body as one bit mask per row --
+     bit x of element y is set when (x, y) is part of the body.
+     Shifting a mask left by a board x lines it up with that board row,
+     so a placement can be tested one row at a time.
+     The caller should not modify this array.
+    */
+   public int[] getRowMasks() {
+      return rowMasks;
    }
 
     /*
@@ -118,56 +158,162 @@ public final class Piece {
       return prev;
    }
 
-   // returns color of this piece
-   public Color getColor() {
-      return color;
+   // returns the type of this piece -- its index in getPieces().
+   // Drawing code maps it to a color, see JTetris.getColor()
+   public int getType() {
+      return type;
+   }
+
+   // Returns the index of this rotation in its ring -- leftRotation()
+   // adds one and rightRotation() subtracts one, wrapping around
+   public int getRotationIndex() {
+      return rotation;
+   }
+
+   // Returns how many distinct rotations this piece has (1, 2 or 4)
+   public int getRotationCount() {
+      return ring.length;
+   }
+
+   // Returns the rotation of this piece with the given index
+   public Piece getRotation(int index) {
+      return ring[index];
+   }
+
+   // Returns a small integer naming this piece and rotation --
+   // type * MAX_ROTATIONS + rotation index. Equal pieces have equal ids.
+   public int getId() {
+      return type * MAX_ROTATIONS + rotation;
    }
 
 	/*
 	 Returns true if two pieces are the same --
-	 their bodies contain the same points.
-	 Interestingly, this is not the same as having exactly the
-	 same body arrays, since the points may not be
-	 in the same order in the bodies. Used internally to detect
-	 if two rotations are effectively the same.
+	 the same piece in the same rotation. Rotations are deduplicated
+	 when the rings are built, so this is the same as their bodies
+	 containing the same points, but costs only an integer compare.
 	*/
    public boolean equals(Piece piece) {
-      if (this == piece)
-         return true;
-      for (int i = 0; i < body.length; i++)
-         if (!pts.contains(piece.body[i]))
-            return false;
-      return true;
+      return type == piece.type && rotation == piece.rotation;
+   }
+
+   // Returns true if the two bodies contain the same points, in any
+   // order. Bodies always start at x = 0 and y = 0, so the row masks are
+   // canonical and comparing them is enough. Only used while building
+   // the rotation rings.
+   private boolean sameBody(Piece piece) {
+      return Arrays.equals(rowMasks, piece.rowMasks);
    }
 
 	/*
 	 Returns an array containing the first rotation of
 	 each of the 7 standard tetris pieces.
+	 Other piece sets can be built with makePieces(), parsePieces()
+	 or loadPieces().
 	 The next (counterclockwise) rotation can be obtained
 	 from each piece with the {@link #nextRotation()} message.
 	 In this way, the client can iterate through all the rotations
 	 until eventually getting back to the first rotation.
+
+	 The pieces and their rotations are built once, so every call
+	 returns the same shared array. The caller should not modify it.
 	*/
    public static Piece[] getPieces() {
-      pieces = new Piece[] {
-         pieceRow(new Piece(parsePoints("0 0	0 1	0 2	0 3"), Color.CYAN)),	   // 0  I
-         pieceRow(new Piece(parsePoints("0 0	0 1	0 2	1 0"), Color.ORANGE)),  // 1  L
-         pieceRow(new Piece(parsePoints("0 0	1 0	1 1	1 2"), Color.BLUE)),	   // 2  J
-         pieceRow(new Piece(parsePoints("0 0	1 0	1 1	2 1"), Color.GREEN)),   // 3  S
-         pieceRow(new Piece(parsePoints("0 1	1 1	1 0	2 0"), Color.RED)),	   // 4  Z
-         pieceRow(new Piece(parsePoints("0 0	0 1	1 0	1 1"), Color.YELLOW)),  // 5  O
-         pieceRow(new Piece(parsePoints("0 0	1 0	1 1	2 0"), Color.MAGENTA))	// 6  T
-         };
       //printInfoRight(pieces);
       return pieces;
    }
 
+	/*
+	 Builds a piece set from the blocks of the first rotation of each
+	 piece, given as x, y pairs -- e.g. {0, 0,  0, 1,  0, 2,  1, 0} for L.
+	 The blocks may be in any order and at any offset; they are shifted so
+	 the lowest x and y are 0. The rotations of each piece are generated
+	 and deduplicated, and the index of a piece in the array becomes its type.
+	 Throws IllegalArgumentException for an empty or malformed piece.
+	*/
+   public static Piece[] makePieces(int[][] definitions) {
+      // Board stores type + 1 in a byte
+      if (definitions.length > Byte.MAX_VALUE - 1)
+         throw new IllegalArgumentException("Too many pieces: " + definitions.length);
+      Piece[] result = new Piece[definitions.length];
+      for (int type = 0; type < definitions.length; type++) {
+         int[] coords = definitions[type];
+         if (coords.length == 0 || coords.length % 2 != 0)
+            throw new IllegalArgumentException("Piece " + type + " needs x, y pairs: " +
+                  Arrays.toString(coords));
+         int[] x = new int[coords.length / 2];
+         int[] y = new int[coords.length / 2];
+         int minX = Integer.MAX_VALUE;
+         int minY = Integer.MAX_VALUE;
+         for (int i = 0; i < x.length; i++) {
+            minX = Math.min(minX, coords[2 * i]);
+            minY = Math.min(minY, coords[2 * i + 1]);
+         }
+         for (int i = 0; i < x.length; i++) {
+            x[i] = coords[2 * i] - minX;
+            y[i] = coords[2 * i + 1] - minY;
+            // rotating swaps width and height, and each must fit a row mask
+            if (x[i] >= Integer.SIZE - 1 || y[i] >= Integer.SIZE - 1)
+               throw new IllegalArgumentException("Piece " + type + " is too large: " +
+                     Arrays.toString(coords));
+         }
+         Piece piece = new Piece(x, y, type);
+         int blocks = 0;
+         for (int mask : piece.rowMasks)
+            blocks += Integer.bitCount(mask);
+         if (blocks != x.length)
+            throw new IllegalArgumentException("Piece " + type + " repeats a block: " +
+                  Arrays.toString(coords));
+         result[type] = pieceRow(piece);
+      }
+      return result;
+   }
+
+	/*
+	 Builds a piece set from text with one piece per line, each line
+	 holding the x, y pairs of its blocks ("0 0	0 1	0 2	1 0").
+	 Blank lines and lines starting with # are skipped.
+	 See makePieces() for how the pieces are built.
+	*/
+   public static Piece[] parsePieces(String text) {
+      List<int[]> definitions = new ArrayList<int[]>();
+      for (String line : text.split("\r?\n")) {
+         line = line.trim();
+         if (line.isEmpty() || line.startsWith("#"))
+            continue;
+         String[] tokens = line.split("\\s+");
+         int[] coords = new int[tokens.length];
+         try {
+            for (int i = 0; i < tokens.length; i++)
+               coords[i] = Integer.parseInt(tokens[i]);
+         }
+         catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Could not parse x,y string:" + line);
+         }
+         definitions.add(coords);
+      }
+      return makePieces(definitions.toArray(new int[definitions.size()][]));
+   }
+
+   // Reads a piece set in the parsePieces() format from the given file
+   public static Piece[] loadPieces(String filename) throws IOException {
+      StringBuilder text = new StringBuilder();
+      BufferedReader in = new BufferedReader(new FileReader(filename));
+      try {
+         String line;
+         while ((line = in.readLine()) != null)
+            text.append(line).append('\n');
+      } finally {
+         in.close();
+      }
+      return parsePieces(text.toString());
+   }
+
    // prints skirt values and points contained in the given piece
    public static void printOne(Piece piece) {
       String skirtValues = String.format("%1$15s" , Arrays.toString(piece.skirt) + " = ");
       System.out.print(skirtValues);
-      for (Point p : piece.body) {
-         System.out.print("(" + p.x + "," + p.y + ")");
+      for (int i = 0; i < piece.bodyX.length; i++) {
+         System.out.print("(" + piece.bodyX[i] + "," + piece.bodyY[i] + ")");
       }
       System.out.println(" " + piece.getWidth() + ", " + piece.getHeight());
    }
@@ -211,59 +357,40 @@ public final class Piece {
    // of object with the same type
    private static Piece pieceRow(Piece firstPiece) {
       Piece current = firstPiece;
-      Color c = firstPiece.getColor();
-      Piece nextPiece = new Piece(parsePoints(getNextCoord(firstPiece)), c);
-		while (!firstPiece.equals(nextPiece)) {
+      int count = 1;
+      Piece nextPiece = rotateLeft(firstPiece);
+		while (!firstPiece.sameBody(nextPiece)) {
          current.next = nextPiece;
          nextPiece.prev = current;
+         nextPiece.rotation = count++;
          current = current.next;
-         nextPiece = new Piece(parsePoints(getNextCoord(current)), c);
+         nextPiece = rotateLeft(current);
       }
       current.next = firstPiece;
       firstPiece.prev = current;
+
+      // every rotation shares one ring, indexed by rotation
+      Piece[] ring = new Piece[count];
+      current = firstPiece;
+      for (int i = 0; i < count; i++) {
+         ring[i] = current;
+         current.ring = ring;
+         current = current.next;
+      }
       return firstPiece;
    }
 
-   // returns s String to be used in constructor
-   // pieceRow(new Piece(parsePoints("0 0	0 1	0 2	0 3")))
-   // transformation steps - counter-clockwise rotation
+   // returns a new piece holding the given piece rotated 90 degrees
+   // counter-clockwise. transformation steps -
    // swap x and y
    // -swappedX + (originalHeight - 1)
-   private static String getNextCoord(Piece piece) {
-      String coordinates = "";
-      for (Point p : piece.body) {
-         int newX = -p.y + (piece.height - 1);
-         int newY = p.x;
-         coordinates += newX + " " + newY + " ";
+   private static Piece rotateLeft(Piece piece) {
+      int[] x = new int[piece.bodyX.length];
+      int[] y = new int[piece.bodyX.length];
+      for (int i = 0; i < x.length; i++) {
+         x[i] = -piece.bodyY[i] + (piece.height - 1);
+         y[i] = piece.bodyX[i];
       }
-      return coordinates;
-   }
-
-	/*
-	 Given a string of x,y pairs ("0 0	0 1	0 2	1 0"), parses
-	 the points into a Point[] array.
-	 (Provided code)
-	*/
-   private static Point[] parsePoints(String string) {
-       // could use Arraylist here, but use vector so works on Java 1.1
-      Vector<Point> points = new Vector<Point>();
-      StringTokenizer tok = new StringTokenizer(string);
-      try {
-         while(tok.hasMoreTokens()) {
-            int x = Integer.parseInt(tok.nextToken());
-            int y = Integer.parseInt(tok.nextToken());
-
-            points.addElement(new Point(x, y));
-         }
-      }
-      catch (NumberFormatException e) {
-         throw new RuntimeException("Could not parse x,y string:" + string);
-         // cheap way to do assert
-      }
-
-   	  // Make an array out of the Vector
-      Point[] array = new Point[points.size()];
-      points.copyInto(array);
-      return(array);
+      return new Piece(x, y, piece.type);
    }
 }
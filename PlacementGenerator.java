@@ -0,0 +1,82 @@
+/**
+ Enumerates every distinct place a piece can come to rest when it is
+ dropped straight down -- each rotation at each x, landing at the drop
+ height -- without placing anything on the board.
+
+ Placements are packed into single ints (see pack()) and kept in a
+ buffer owned by the generator, which is reused by the next generate(),
+ so a search loop can enumerate moves without allocating.
+ The rotation rings built by Piece hold each distinct rotation once
+ (1 for O, 2 for I, S and Z), so no two placements fill the same blocks.
+*/
+public final class PlacementGenerator {
+   private static final int FIELD_BITS = 12;
+   private static final int FIELD_MASK = (1 << FIELD_BITS) - 1;
+
+   private int[] placements;  // packed placements from the last generate()
+   private int count;
+   private int[] drops;       // landing y for each x of one rotation
+
+   public PlacementGenerator() {
+      placements = new int[0];
+      drops = new int[0];
+   }
+
+   /**
+    Finds the placements of every rotation of the piece, starting with the
+    given rotation and going counter-clockwise, x from left to right.
+    Placements that would stick up past limitHeight are left out.
+    Returns the number of placements found.
+   */
+   public int generate(Board board, Piece piece, int limitHeight) {
+      int width = board.getWidth();
+      int rotations = piece.getRotationCount();
+      if (drops.length < width)
+         drops = new int[width];
+      if (placements.length < width * rotations)
+         placements = new int[width * rotations];
+   
+      count = 0;
+      for (int i = 0; i < rotations; i++) {
+         int rotation = (piece.getRotationIndex() + i) % rotations;
+         Piece current = piece.getRotation(rotation);
+         int yBound = limitHeight - current.getHeight() + 1;
+         int xBound = board.dropHeights(current, drops);
+         for (int x = 0; x < xBound; x++) {
+            if (drops[x] < yBound)
+               placements[count++] = pack(rotation, x, drops[x]);
+         }
+      }
+      return count;
+   }
+
+   // Returns the number of placements found by the last generate()
+   public int getCount() {
+      return count;
+   }
+
+   // Returns the i-th packed placement found by the last generate()
+   public int getPlacement(int i) {
+      return placements[i];
+   }
+
+   // Packs a rotation index, x and y into one int, 12 bits each
+   public static int pack(int rotation, int x, int y) {
+      return (rotation << (2 * FIELD_BITS)) | (x << FIELD_BITS) | y;
+   }
+
+   // Returns the rotation index of a packed placement -- see Piece.getRotation(int)
+   public static int rotation(int placement) {
+      return placement >>> (2 * FIELD_BITS);
+   }
+
+   // Returns the x of a packed placement
+   public static int x(int placement) {
+      return (placement >>> FIELD_BITS) & FIELD_MASK;
+   }
+
+   // Returns the y of a packed placement
+   public static int y(int placement) {
+      return placement & FIELD_MASK;
+   }
+}
@@ -1,10 +1,16 @@
 import java.awt.*;
 import javax.swing.*;
 import java.awt.event.*;
+import java.io.*;
 
 public class Tetris extends JApplet {
 	// tetris was stored as a field
 	public Tetris() {
+		this(Piece.getPieces());
+	}
+
+	// plays the given piece set, e.g. one from Piece.loadPieces()
+	public Tetris(Piece[] pieces) {
 		JComponent container = (JComponent) this.getContentPane();
 		container.setLayout(new BorderLayout());
       // Set the system look and feel
@@ -21,7 +27,7 @@ public class Tetris extends JApplet {
 		// Could create a JTetris or JBrainTetris here
 		final int pixels = 16;
 		JTetris tetris = new JBrainTetris(JTetris.WIDTH * pixels + 2,
-				(JTetris.HEIGHT + JTetris.TOP_SPACE) * pixels + 2);
+				(JTetris.HEIGHT + JTetris.TOP_SPACE) * pixels + 2, pieces);
 		container.add(tetris, BorderLayout.CENTER);
 
 		Container panel = tetris.createControlPanel();
@@ -35,10 +41,21 @@ public class Tetris extends JApplet {
      	container.add(east, BorderLayout.EAST);
 	}
 
+	// Run with "pieces <file>" to play a piece set from Piece.loadPieces(),
+	// e.g. pentominoes.txt
 	public static void main(String[] args) {
+		Piece[] pieces = Piece.getPieces();
+		if (args.length > 1 && args[0].equals("pieces")) {
+			try {
+				pieces = Piece.loadPieces(args[1]);
+			} catch (IOException e) {
+				System.err.println("Could not read pieces from " + args[1] + ": " + e.getMessage());
+				return;
+			}
+		}
 		JFrame frame = new JFrame();
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		frame.add(new Tetris());
+		frame.add(new Tetris(pieces));
 		frame.pack();
 		// before frame.pack(), w and h of frame is zero
 		Point center = GraphicsEnvironment.getLocalGraphicsEnvironment().getCenterPoint();
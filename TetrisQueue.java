@@ -4,7 +4,7 @@ import javax.swing.*;
 import java.awt.event.*;
 
 public class TetrisQueue extends JComponent {
-   private static final int LENGTH = 5;
+   public static final int LENGTH = 5;  // pieces shown, and known ahead of time
    private static final int SIZE = 10;
 
    private Queue<Piece> queue;
@@ -41,11 +41,10 @@ public class TetrisQueue extends JComponent {
       int middleX = 30;
       for (int i = 0; i < LENGTH; i++) {
          Piece piece = remove();
-         Point[] body = piece.getBody();
-         for (Point p : body) {
-            int x = middleX + p.x * SIZE;
-            int y = (piece.getHeight() - p.y) * SIZE + curY;
-            g.setColor(piece.getColor());
+         for (int j = 0; j < piece.getBodySize(); j++) {
+            int x = middleX + piece.getBodyX(j) * SIZE;
+            int y = (piece.getHeight() - piece.getBodyY(j)) * SIZE + curY;
+            g.setColor(JTetris.getColor(piece.getType()));
             g.fillRect(x, y, SIZE, SIZE);
             g.setColor(Color.WHITE);
             g.drawRect(x, y, SIZE, SIZE);
@@ -57,6 +56,18 @@ public class TetrisQueue extends JComponent {
       }
    }
 
+   // Copies the upcoming pieces, next one first, into out -- as many as
+   // fit, up to LENGTH -- and returns how many were copied
+   public int getPreview(Piece[] out) {
+      int count = 0;
+      for (Piece piece : queue) {
+         if (count == out.length)
+            break;
+         out[count++] = piece;
+      }
+      return count;
+   }
+
    public Piece advance() {
       Piece piece = remove();
       add();
@@ -0,0 +1,111 @@
+import java.util.*;
+
+/**
+ A fixed-size cache of search results keyed by a 64-bit position key,
+ e.g. Board.hash() -- so a board reached again, by another order of the
+ same pieces or on a later move, is not rated from scratch.
+
+ Each entry packs a float score and the depth it was searched to into one
+ long. The table is open-addressed: a key may sit in any of PROBES slots
+ from its home slot. When they are all taken the shallowest entry gives
+ way, but never to a shallower one (replace-by-depth).
+
+ Scores are stored as floats, so put() returns the score as it will be read
+ back; callers should use that value either way, so a result is the same
+ whether or not it came from the table. Keys are stored XORed with their
+ entry, so a slot being written by another thread just reads as a miss --
+ several threads may share one table without locking.
+*/
+public final class TranspositionTable {
+   public static final int DEFAULT_SIZE = 1 << 16;
+   private static final int PROBES = 4;
+
+   private final long[] keys;      // key ^ entry
+   private final long[] entries;   // float score bits << 32 | depth + 1, 0 when empty
+   private final int mask;
+
+   // Creates a table of DEFAULT_SIZE entries
+   public TranspositionTable() {
+      this(DEFAULT_SIZE);
+   }
+
+   /**
+    Creates a table of at least the given number of entries,
+    rounded up to a power of two. It never grows.
+   */
+   public TranspositionTable(int size) {
+      if (size < 1 || size > (1 << 30))
+         throw new IllegalArgumentException("Table size must be between 1 and 2^30: " + size);
+      int capacity = Math.max(Integer.highestOneBit(size - 1) << 1, PROBES);
+      keys = new long[capacity];
+      entries = new long[capacity];
+      mask = capacity - 1;
+   }
+
+   /**
+    Returns the score stored for the key if it was searched to at least
+    the given depth, or NaN if there is none.
+   */
+   public double get(long key, int depth) {
+      int home = home(key);
+      for (int i = 0; i < PROBES; i++) {
+         int slot = (home + i) & mask;
+         long entry = entries[slot];
+         if (entry != 0 && (keys[slot] ^ entry) == key)
+            return (depth(entry) >= depth) ? score(entry) : Double.NaN;
+      }
+      return Double.NaN;
+   }
+
+   /**
+    Stores the score for the key, searched to the given depth, unless
+    every slot it could go in holds a deeper result. Returns the score
+    as get() reads it back.
+   */
+   public double put(long key, int depth, double score) {
+      long entry = ((long) Float.floatToIntBits((float) score) << 32) | (depth + 1);
+      int home = home(key);
+      int target = -1;
+      int targetDepth = Integer.MAX_VALUE;
+      for (int i = 0; i < PROBES; i++) {
+         int slot = (home + i) & mask;
+         long old = entries[slot];
+         if (old == 0 || (keys[slot] ^ old) == key) {
+            // the key's own slot, or a free one before it was found
+            if (old == 0 || depth(old) <= depth)
+               store(slot, key, entry);
+            return score(entry);
+         }
+         if (depth(old) < targetDepth) {
+            target = slot;
+            targetDepth = depth(old);
+         }
+      }
+      if (targetDepth <= depth)
+         store(target, key, entry);
+      return score(entry);
+   }
+
+   // Empties the table
+   public void clear() {
+      Arrays.fill(entries, 0);
+      Arrays.fill(keys, 0);
+   }
+
+   private void store(int slot, long key, long entry) {
+      entries[slot] = entry;
+      keys[slot] = key ^ entry;
+   }
+
+   private int home(long key) {
+      return (int) (key ^ (key >>> 32)) & mask;
+   }
+
+   private static int depth(long entry) {
+      return (int) entry - 1;
+   }
+
+   private static double score(long entry) {
+      return Float.intBitsToFloat((int) (entry >>> 32));
+   }
+}